@@ -0,0 +1,1173 @@
+package editortrees;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * The same height-balanced tree with rank as EditTree, with the same editing
+ * methods, but stored as a structure of arrays. A node is an int index, and
+ * its element, children, rank, newline count and balance code are entries in
+ * parallel primitive arrays, so the tree is a few objects however big it gets
+ * and a descent reads a few dense arrays instead of chasing pointers. Slot 0
+ * is the null node. Slots freed by deletions are kept on a free list and used
+ * again before the arrays grow.
+ *
+ * Insertions, deletions and rotations are done exactly as Node does them, so
+ * the two trees have the same shapes, balance codes and rotation counts.
+ *
+ * The arrays belong to a Nodes object rather than to the tree, and the tree
+ * split returns keeps its nodes where they are, in the same Nodes. Trees that
+ * share their Nodes concatenate in O(log N) time, as EditTrees do; others are
+ * copied in first. This has the TextTree methods, but none of what EditTree
+ * has beyond them, and its snapshot is a copy made in O(N) time.
+ */
+public class ArrayEditTree implements TextTree<ArrayEditTree> {
+
+	// balance codes, which are also the directions of children
+	private static final byte SAME = 0;
+	private static final byte LEFT = 1;
+	private static final byte RIGHT = 2;
+	// what a step back up the tree leaves for the next step to do; see
+	// Node.Change
+	private static final int NONE = 0;
+	private static final int INS = 1;
+	private static final int DEL = 2;
+	// the null node, which leaves point to
+	private static final int NULL = 0;
+
+	/**
+	 * The arrays a tree's nodes live in, which the trees split off from it
+	 * share. Each node belongs to one tree, and the slots any of them free go
+	 * on the one free list.
+	 */
+	private static final class Nodes {
+		char[] element;
+		int[] left;
+		int[] right;
+		int[] rank;
+		// newlines in each node's subtree
+		int[] lines;
+		byte[] balance;
+		// slots from used on have never held a node
+		int used;
+		// the last slot freed, which links to the one freed before it
+		// through left, or NULL
+		int free;
+
+		/**
+		 * Makes empty storage for capacity nodes
+		 */
+		Nodes(int capacity) {
+			this.element = new char[capacity + 1];
+			this.left = new int[capacity + 1];
+			this.right = new int[capacity + 1];
+			this.rank = new int[capacity + 1];
+			this.lines = new int[capacity + 1];
+			this.balance = new byte[capacity + 1];
+			this.element[NULL] = '%';
+			this.used = 1;
+			this.free = NULL;
+		}
+
+		/**
+		 * Makes a copy of nodes, slot for slot
+		 */
+		Nodes(Nodes nodes) {
+			this.element = nodes.element.clone();
+			this.left = nodes.left.clone();
+			this.right = nodes.right.clone();
+			this.rank = nodes.rank.clone();
+			this.lines = nodes.lines.clone();
+			this.balance = nodes.balance.clone();
+			this.used = nodes.used;
+			this.free = nodes.free;
+		}
+
+		/**
+		 * @return a slot holding a new node with element ch and no children
+		 */
+		int allocate(char ch) {
+			int n;
+			if (this.free != NULL) {
+				n = this.free;
+				this.free = this.left[n];
+			} else {
+				if (this.used == this.element.length) {
+					this.grow(this.used * 2);
+				}
+				n = this.used++;
+			}
+			this.element[n] = ch;
+			this.left[n] = NULL;
+			this.right[n] = NULL;
+			this.rank[n] = 0;
+			this.lines[n] = (ch == '\n') ? 1 : 0;
+			this.balance[n] = SAME;
+			return n;
+		}
+
+		/**
+		 * Puts slot n on the free list
+		 */
+		void release(int n) {
+			this.left[n] = this.free;
+			this.free = n;
+		}
+
+		/**
+		 * Makes room for at least count more nodes, if the free list may not
+		 * hold them
+		 */
+		void reserve(int count) {
+			if (this.free == NULL && this.used + count > this.element.length) {
+				this.grow(Math.max(this.used + count, this.used * 2));
+			}
+		}
+
+		private void grow(int capacity) {
+			this.element = Arrays.copyOf(this.element, capacity);
+			this.left = Arrays.copyOf(this.left, capacity);
+			this.right = Arrays.copyOf(this.right, capacity);
+			this.rank = Arrays.copyOf(this.rank, capacity);
+			this.lines = Arrays.copyOf(this.lines, capacity);
+			this.balance = Arrays.copyOf(this.balance, capacity);
+		}
+	}
+
+	private Nodes nodes;
+	private int root;
+	private int size;
+	private int rotationCount;
+	// what the last step of an edit left behind, as Node.Wrap carries it
+	private int change;
+	private int removed;
+	private char delVal;
+	// the halves the last split left behind, as Node.Split carries them
+	private int splitLeft;
+	private int splitLeftHeight;
+	private int splitRight;
+	private int splitRightHeight;
+
+	/**
+	 * Constructs an empty tree
+	 */
+	public ArrayEditTree() {
+		this.nodes = new Nodes(16);
+		this.root = NULL;
+	}
+
+	/**
+	 * Construct a single-node tree
+	 *
+	 * @param ch,
+	 *            the element in the single node
+	 */
+	public ArrayEditTree(char ch) {
+		this();
+		this.add(ch);
+	}
+
+	/**
+	 * Creates a tree whose toString is s in O(N) time, in the same shape as
+	 * new EditTree(s)
+	 *
+	 * @param s
+	 */
+	public ArrayEditTree(CharSequence s) {
+		this.nodes = new Nodes(s.length() + 1);
+		this.root = this.build(s, 0, s.length());
+		this.size = s.length();
+	}
+
+	/**
+	 * Makes a copy of tree e, with the same shape and contents
+	 *
+	 * @param e,
+	 *            tree to be copied
+	 */
+	public ArrayEditTree(ArrayEditTree e) {
+		this.nodes = new Nodes(e.nodes);
+		this.root = e.root;
+		this.size = e.size;
+		this.rotationCount = 0;
+	}
+
+	/**
+	 * Makes a tree of the given nodes
+	 */
+	private ArrayEditTree(Nodes nodes, int root, int size) {
+		this.nodes = nodes;
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Builds the characters of s from first up to last as addFromString does
+	 */
+	private int build(CharSequence s, int first, int last) {
+		int count = last - first;
+		if (count == 0) {
+			return NULL;
+		}
+		int middle = first + count / 2;
+		int n = this.nodes.allocate(s.charAt(middle));
+		this.nodes.rank[n] = middle - first;
+		int leftCount = count / 2;
+		int rightCount = count - count / 2 - 1;
+		int leftHeight = (leftCount == 0) ? -1 : Node.log2(leftCount);
+		int rightHeight = (rightCount == 0) ? -1 : Node.log2(rightCount);
+		this.nodes.balance[n] = (leftHeight > rightHeight) ? LEFT : SAME;
+		int l = this.build(s, first, middle);
+		int r = this.build(s, middle + 1, last);
+		this.nodes.left[n] = l;
+		this.nodes.right[n] = r;
+		this.nodes.lines[n] += this.nodes.lines[l] + this.nodes.lines[r];
+		return n;
+	}
+
+	/**
+	 * Returns the total number of rotations done in this tree since it was
+	 * created. A double rotation counts as two.
+	 *
+	 * @return number of rotations since this tree was created.
+	 */
+	@Override
+	public int totalRotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 * Returns the string produced by an inorder traversal of this tree
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this.size);
+		Walk walk = new Walk(0);
+		while (walk.hasNext()) {
+			sb.append(walk.nextChar());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the elements, ranks, and balance codes in a pre-order traversal
+	 *         of the tree, as EditTree.toDebugString gives them
+	 */
+	@Override
+	public String toDebugString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		this.toDebugString(this.root, sb);
+		if (sb.length() > 2)
+			sb.delete(sb.length() - 2, sb.length());
+		sb.append("]");
+		return sb.toString();
+	}
+
+	private void toDebugString(int n, StringBuilder sb) {
+		if (n == NULL) {
+			return;
+		}
+		sb.append(this.nodes.element[n]);
+		sb.append(this.nodes.rank[n]);
+		sb.append((this.nodes.balance[n] == LEFT) ? "/" : (this.nodes.balance[n] == RIGHT) ? "\\" : "=");
+		sb.append(", ");
+		this.toDebugString(this.nodes.left[n], sb);
+		this.toDebugString(this.nodes.right[n], sb);
+	}
+
+	/**
+	 * Adds a node whose element is ch to the end of the tree.
+	 *
+	 * @param ch
+	 *            character to add to the end of this tree.
+	 */
+	@Override
+	public void add(char ch) {
+		this.root = this.addLast(this.root, ch);
+		this.size++;
+	}
+
+	/**
+	 * Adds a node whose element is ch to the specified place in the tree
+	 *
+	 * @param ch
+	 *            character to add
+	 * @param pos
+	 *            character added in this inorder position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	@Override
+	public void add(char ch, int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.root = this.addAt(this.root, ch, pos);
+		this.size++;
+	}
+
+	/**
+	 * Adds the characters of s at pos, as EditTree does: they are built into
+	 * a balanced subtree in O(k) time, for k the length of s, and joined in
+	 * with a split and two concatenations in O(log N) time.
+	 *
+	 * @param s
+	 *            the characters to add
+	 * @param pos
+	 *            the first character of s is added in this inorder position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	@Override
+	public void add(String s, int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (s.isEmpty()) {
+			return;
+		}
+		this.nodes.reserve(s.length());
+		int block = this.build(s, 0, s.length());
+		int blockHeight = Node.log2(s.length());
+		this.split(this.root, this.height(), this.size, pos);
+		int right = this.splitRight;
+		int rightHeight = this.splitRightHeight;
+		int l = this.join(this.splitLeft, this.splitLeftHeight, pos, block, blockHeight);
+		int leftHeight = this.joinedHeight;
+		this.root = this.join(l, leftHeight, pos + s.length(), right, rightHeight);
+		this.size += s.length();
+	}
+
+	/**
+	 * Gets the character at the specified position, without recursion.
+	 *
+	 * @param pos
+	 *            position in the tree
+	 * @return the character at that position
+	 * @throws IndexOutOfBoundsException
+	 */
+	@Override
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int n = this.root;
+		while (true) {
+			int r = this.nodes.rank[n];
+			if (pos < r) {
+				n = this.nodes.left[n];
+			} else if (pos > r) {
+				pos -= r + 1;
+				n = this.nodes.right[n];
+			} else {
+				return this.nodes.element[n];
+			}
+		}
+	}
+
+	/**
+	 * Returns the length characters starting at pos, in O(length + log N)
+	 * time
+	 *
+	 * @param pos
+	 * @param length
+	 * @return string of length that starts in position pos
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length-1 are legitimate indexes
+	 *             within this tree.
+	 */
+	@Override
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		StringBuilder sb = new StringBuilder(length);
+		Walk walk = new Walk(pos);
+		for (int i = 0; i < length; i++) {
+			sb.append(walk.nextChar());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the height of the tree, from the balance codes.
+	 *
+	 * @return the height of this tree
+	 */
+	@Override
+	public int height() {
+		return this.height(this.root);
+	}
+
+	private int height(int n) {
+		int height = -1;
+		while (n != NULL) {
+			height++;
+			n = (this.nodes.balance[n] == LEFT) ? this.nodes.left[n] : this.nodes.right[n];
+		}
+		return height;
+	}
+
+	/**
+	 * Returns the number of characters in this tree, in O(1) time
+	 *
+	 * @return the number of characters in this tree
+	 */
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Removes a character and returns it. Its slot goes on the free list.
+	 *
+	 * @param pos
+	 *            position of character to delete from this tree
+	 * @return the character that is deleted
+	 * @throws IndexOutOfBoundsException
+	 */
+	@Override
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.root = this.deleteAt(this.root, pos);
+		this.size--;
+		return this.delVal;
+	}
+
+	/**
+	 * Removes length characters starting at pos and returns them, cutting
+	 * them out with two splits and joining the ends back together. Their
+	 * slots go on the free list, so this takes O(length + log N) time.
+	 *
+	 * @param pos
+	 *            position of the first character to delete
+	 * @param length
+	 *            number of characters to delete
+	 * @return the characters that are deleted
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length are between 0 and the size of
+	 *             this tree and length is not negative
+	 */
+	@Override
+	public String delete(int pos, int length) throws IndexOutOfBoundsException {
+		return this.replace(pos, length, "");
+	}
+
+	/**
+	 * Replaces the length characters starting at pos with s and returns the
+	 * characters replaced, in O(length + k + log N) time, where k is the
+	 * length of s.
+	 *
+	 * @param pos
+	 *            position of the first character to replace
+	 * @param length
+	 *            number of characters to replace
+	 * @param s
+	 *            the characters to put in their place
+	 * @return the characters that are replaced
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length are between 0 and the size of
+	 *             this tree and length is not negative
+	 */
+	@Override
+	public String replace(int pos, int length, String s) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		String text = "";
+		if (length > 0) {
+			this.split(this.root, this.height(), this.size, pos);
+			int left = this.splitLeft;
+			int leftHeight = this.splitLeftHeight;
+			this.split(this.splitRight, this.splitRightHeight, this.size - pos, length);
+			ArrayEditTree cut = new ArrayEditTree(this.nodes, this.splitLeft, length);
+			text = cut.toString();
+			cut.release(cut.root);
+			this.root = this.join(left, leftHeight, pos, this.splitRight, this.splitRightHeight);
+			this.size -= length;
+		}
+		this.add(s, pos);
+		return text;
+	}
+
+	/**
+	 * Puts every node of the subtree rooted at n on the free list
+	 */
+	private void release(int n) {
+		if (n == NULL) {
+			return;
+		}
+		int l = this.nodes.left[n];
+		int r = this.nodes.right[n];
+		this.nodes.release(n);
+		this.release(l);
+		this.release(r);
+	}
+
+	/**
+	 * Appends the contents of other to this tree and makes other empty. A tree
+	 * split off from this one, or from one this was split off from, keeps its
+	 * nodes in the same arrays, and is joined on in time proportional to the
+	 * log of the size of the larger tree. The nodes of any other tree are
+	 * first copied into this tree's arrays, in O(M) time for M the size of
+	 * other.
+	 *
+	 * @param other
+	 * @throws IllegalArgumentException
+	 *             if this == other
+	 */
+	@Override
+	public void concatenate(ArrayEditTree other) throws IllegalArgumentException {
+		if (other == this) {
+			throw new IllegalArgumentException();
+		}
+		if (other.size == 0) {
+			return;
+		}
+		int r;
+		if (other.nodes == this.nodes) {
+			r = other.root;
+		} else {
+			this.nodes.reserve(other.size);
+			r = this.copyIn(other, other.root);
+		}
+		int otherSize = other.size;
+		other.nodes = new Nodes(16);
+		other.root = NULL;
+		other.size = 0;
+		this.root = this.join(this.root, this.height(), this.size, r, this.height(r));
+		this.size += otherSize;
+	}
+
+	/**
+	 * Cuts this tree in two in time proportional to the log of its size, the
+	 * inverse of concatenate. This tree keeps the characters before pos and
+	 * the rest are moved to the returned tree, which keeps its nodes in this
+	 * tree's arrays.
+	 *
+	 * @param pos
+	 *            position of the first character of the returned tree
+	 * @return a tree holding the characters from pos on
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	@Override
+	public ArrayEditTree split(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.split(this.root, this.height(), this.size, pos);
+		ArrayEditTree other = new ArrayEditTree(this.nodes, this.splitRight, this.size - pos);
+		this.root = this.splitLeft;
+		this.size = pos;
+		return other;
+	}
+
+	/**
+	 * Copies this tree, in O(N) time. Unlike an EditTree's snapshot, the copy
+	 * shares nothing with this tree.
+	 *
+	 * @return a tree with the same contents as this one
+	 */
+	@Override
+	public ArrayEditTree snapshot() {
+		return new ArrayEditTree(this);
+	}
+
+	/**
+	 * Returns the number of lines in this tree, one more than the number of
+	 * newlines, in O(1) time.
+	 *
+	 * @return the number of lines
+	 */
+	@Override
+	public int lineCount() {
+		return this.nodes.lines[this.root] + 1;
+	}
+
+	/**
+	 * Finds where a line starts in O(log N) time, from the newline count kept
+	 * for each node's subtree.
+	 *
+	 * @param line
+	 *            the line number, counting from 0
+	 * @return the position of the line's first character
+	 * @throws IndexOutOfBoundsException
+	 *             unless line is between 0 and lineCount() - 1
+	 */
+	@Override
+	public int lineStart(int line) throws IndexOutOfBoundsException {
+		if (line < 0 || line > this.nodes.lines[this.root]) {
+			throw new IndexOutOfBoundsException();
+		}
+		// the position just after the lineth newline
+		int pos = 0;
+		int n = this.root;
+		int k = line;
+		while (k > 0) {
+			int l = this.nodes.left[n];
+			int own = (this.nodes.element[n] == '\n') ? 1 : 0;
+			if (k <= this.nodes.lines[l]) {
+				n = l;
+			} else if (k - this.nodes.lines[l] == own) {
+				return pos + this.nodes.rank[n] + 1;
+			} else {
+				k -= this.nodes.lines[l] + own;
+				pos += this.nodes.rank[n] + 1;
+				n = this.nodes.right[n];
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Finds which line a position is on in O(log N) time. A newline is on the
+	 * line it ends.
+	 *
+	 * @param pos
+	 *            a position from 0 to the size of this tree
+	 * @return the number of the line holding that position, counting from 0
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	@Override
+	public int lineOf(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		int line = 0;
+		int n = this.root;
+		while (n != NULL) {
+			int r = this.nodes.rank[n];
+			if (pos <= r) {
+				n = this.nodes.left[n];
+			} else {
+				line += this.nodes.lines[this.nodes.left[n]] + ((this.nodes.element[n] == '\n') ? 1 : 0);
+				pos -= r + 1;
+				n = this.nodes.right[n];
+			}
+		}
+		return line;
+	}
+
+	/**
+	 * Returns the characters of a line, without its newline, in O(k + log N)
+	 * time, where k is the length of the line.
+	 *
+	 * @param line
+	 *            the line number, counting from 0
+	 * @return the line's characters
+	 * @throws IndexOutOfBoundsException
+	 *             unless line is between 0 and lineCount() - 1
+	 */
+	@Override
+	public String getLine(int line) throws IndexOutOfBoundsException {
+		int start = this.lineStart(line);
+		int end = (line == this.nodes.lines[this.root]) ? this.size : this.lineStart(line + 1) - 1;
+		return this.get(start, end - start);
+	}
+
+	/**
+	 * Returns an iterator over the characters of this tree from pos on. It
+	 * goes down to pos once in O(log N) time and then gives each character
+	 * in amortized O(1) time. It must not be used after this tree changes.
+	 *
+	 * @param pos
+	 *            position of the first character to give
+	 * @return an iterator whose nextInt() gives the characters in order
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	@Override
+	public PrimitiveIterator.OfInt iterator(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new Walk(pos);
+	}
+
+	/**
+	 * @return the position in this tree of the first occurrence of s; -1 if s
+	 *         does not occur
+	 */
+	@Override
+	public int find(String s) {
+		return this.find(s, 0);
+	}
+
+	/**
+	 * Returns the position in this tree of the first occurrence of s that does
+	 * not occur before position pos, matching with Knuth-Morris-Pratt as
+	 * EditTree.find does.
+	 *
+	 * @param s
+	 *            the string to search for
+	 * @param pos
+	 *            the position in the tree to begin the search
+	 * @return the position of the first occurrence of s from pos on; -1 if s
+	 *         does not occur
+	 */
+	@Override
+	public int find(String s, int pos) {
+		int start = Math.max(pos, 0);
+		if (s.length() == 0) {
+			return Math.min(start, this.size);
+		}
+		if (start + s.length() > this.size) {
+			return -1;
+		}
+		int[] fallback = new int[s.length()];
+		for (int i = 1, k = 0; i < s.length(); i++) {
+			while (k > 0 && s.charAt(i) != s.charAt(k)) {
+				k = fallback[k - 1];
+			}
+			if (s.charAt(i) == s.charAt(k)) {
+				k++;
+			}
+			fallback[i] = k;
+		}
+		Walk walk = new Walk(start);
+		int matched = 0;
+		int i = start;
+		while (walk.hasNext()) {
+			char ch = walk.nextChar();
+			i++;
+			while (matched > 0 && ch != s.charAt(matched)) {
+				matched = fallback[matched - 1];
+			}
+			if (ch == s.charAt(matched)) {
+				matched++;
+				if (matched == s.length()) {
+					return i - matched;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * An inefficient algorithm for determining the height of the tree
+	 *
+	 * @return height
+	 */
+	public int slowHeight() {
+		return this.slowHeight(this.root);
+	}
+
+	private int slowHeight(int n) {
+		if (n == NULL) {
+			return -1;
+		}
+		return Math.max(this.slowHeight(this.nodes.left[n]), this.slowHeight(this.nodes.right[n])) + 1;
+	}
+
+	/**
+	 * An inefficient algorithm for determining the number of characters in the
+	 * tree
+	 *
+	 * @return size
+	 */
+	public int slowSize() {
+		return this.slowSize(this.root);
+	}
+
+	private int slowSize(int n) {
+		if (n == NULL) {
+			return 0;
+		}
+		return this.slowSize(this.nodes.left[n]) + this.slowSize(this.nodes.right[n]) + 1;
+	}
+
+	// The edits below mirror Node's methods of the same names, deleteAt being
+	// Node.delete. Each returns the new root of the subtree it was given and
+	// leaves change, removed and delVal behind where Node leaves them in its
+	// Wrap. Results of recursive calls go into locals before being stored,
+	// since a call may grow the arrays.
+
+	private int addLast(int n, char ch) {
+		if (n == NULL) {
+			this.change = INS;
+			return this.nodes.allocate(ch);
+		}
+		int child = this.addLast(this.nodes.right[n], ch);
+		return this.check(n, child, RIGHT);
+	}
+
+	private int addAt(int n, char ch, int pos) {
+		if (n == NULL) {
+			this.change = INS;
+			return this.nodes.allocate(ch);
+		}
+		if (this.nodes.rank[n] < pos) {
+			int child = this.addAt(this.nodes.right[n], ch, pos - this.nodes.rank[n] - 1);
+			return this.check(n, child, RIGHT);
+		}
+		int child = this.addAt(this.nodes.left[n], ch, pos);
+		this.nodes.rank[n]++;
+		return this.check(n, child, LEFT);
+	}
+
+	private int deleteAt(int n, int pos) {
+		if (this.nodes.rank[n] < pos) {
+			int child = this.deleteAt(this.nodes.right[n], pos - this.nodes.rank[n] - 1);
+			return this.check(n, child, RIGHT);
+		}
+		if (this.nodes.rank[n] > pos) {
+			int child = this.deleteAt(this.nodes.left[n], pos);
+			this.nodes.rank[n]--;
+			return this.check(n, child, LEFT);
+		}
+		this.delVal = this.nodes.element[n];
+		int replacement = this.unlink(n);
+		this.nodes.release(n);
+		return replacement;
+	}
+
+	private int unlink(int n) {
+		if (this.nodes.right[n] == NULL) {
+			this.change = DEL;
+			return this.nodes.left[n];
+		}
+		int child = this.removeFirst(this.nodes.right[n]);
+		int successor = this.removed;
+		this.nodes.left[successor] = this.nodes.left[n];
+		this.nodes.rank[successor] = this.nodes.rank[n];
+		this.nodes.balance[successor] = this.nodes.balance[n];
+		return this.check(successor, child, RIGHT);
+	}
+
+	private int removeFirst(int n) {
+		if (this.nodes.left[n] == NULL) {
+			this.change = DEL;
+			this.removed = n;
+			return this.nodes.right[n];
+		}
+		int child = this.removeFirst(this.nodes.left[n]);
+		this.nodes.rank[n]--;
+		return this.check(n, child, LEFT);
+	}
+
+	private int removeLast(int n) {
+		if (this.nodes.right[n] == NULL) {
+			this.change = DEL;
+			this.removed = n;
+			return this.nodes.left[n];
+		}
+		int child = this.removeLast(this.nodes.right[n]);
+		return this.check(n, child, RIGHT);
+	}
+
+	/**
+	 * Copies the subtree of other rooted at n into this tree's arrays
+	 */
+	private int copyIn(ArrayEditTree other, int n) {
+		if (n == NULL) {
+			return NULL;
+		}
+		int copy = this.nodes.allocate(other.nodes.element[n]);
+		this.nodes.rank[copy] = other.nodes.rank[n];
+		this.nodes.lines[copy] = other.nodes.lines[n];
+		this.nodes.balance[copy] = other.nodes.balance[n];
+		int l = this.copyIn(other, other.nodes.left[n]);
+		int r = this.copyIn(other, other.nodes.right[n]);
+		this.nodes.left[copy] = l;
+		this.nodes.right[copy] = r;
+		return copy;
+	}
+
+	// the height of the tree the last join of two trees built
+	private int joinedHeight;
+
+	/**
+	 * Concatenates the trees rooted at l and r, using a node taken from the
+	 * shorter one to join them, as EditTree.concatenate does
+	 *
+	 * @param leftSize
+	 *            the number of characters in l
+	 * @return the root of the joined tree, whose height is left in
+	 *         joinedHeight
+	 */
+	private int join(int l, int leftHeight, int leftSize, int r, int rightHeight) {
+		if (r == NULL) {
+			this.joinedHeight = leftHeight;
+			return l;
+		}
+		if (l == NULL) {
+			this.joinedHeight = rightHeight;
+			return r;
+		}
+		// take the key from the shorter tree
+		if (leftHeight < rightHeight) {
+			l = this.removeLast(l);
+			if (this.change == DEL)
+				leftHeight--;
+			leftSize--;
+		} else {
+			r = this.removeFirst(r);
+			if (this.change == DEL)
+				rightHeight--;
+		}
+		return this.join(l, leftHeight, leftSize, this.removed, r, rightHeight);
+	}
+
+	/**
+	 * Joins the trees rooted at l and r with key between them
+	 *
+	 * @return the root of the joined tree, whose height is left in
+	 *         joinedHeight
+	 */
+	private int join(int l, int leftHeight, int leftSize, int key, int r, int rightHeight) {
+		int n;
+		if (leftHeight < rightHeight) {
+			n = this.concatenateHelper(r, rightHeight - leftHeight, LEFT, key, l, leftSize);
+		} else {
+			n = this.concatenateHelper(l, leftHeight - rightHeight, RIGHT, key, r, leftSize);
+		}
+		this.joinedHeight = Math.max(leftHeight, rightHeight) + ((this.change == INS) ? 1 : 0);
+		return n;
+	}
+
+	/**
+	 * Splits the subtree rooted at n, of the given height and size, so that
+	 * its first pos characters end up in splitLeft and the rest in
+	 * splitRight, as Node.split does. Each node on the path down is joined
+	 * onto the half that does not hold the split point.
+	 */
+	private void split(int n, int height, int size, int pos) {
+		if (n == NULL) {
+			this.splitLeft = NULL;
+			this.splitLeftHeight = -1;
+			this.splitRight = NULL;
+			this.splitRightHeight = -1;
+			return;
+		}
+		int r = this.nodes.rank[n];
+		int leftHeight = (this.nodes.balance[n] == RIGHT) ? height - 2 : height - 1;
+		int rightHeight = (this.nodes.balance[n] == LEFT) ? height - 2 : height - 1;
+		int l = this.nodes.left[n];
+		int right = this.nodes.right[n];
+		if (pos <= r) {
+			this.split(l, leftHeight, r, pos);
+			int left = this.splitLeft;
+			int leftPartHeight = this.splitLeftHeight;
+			this.splitRight = this.join(this.splitRight, this.splitRightHeight, r - pos, n, right, rightHeight);
+			this.splitRightHeight = this.joinedHeight;
+			this.splitLeft = left;
+			this.splitLeftHeight = leftPartHeight;
+		} else {
+			this.split(right, rightHeight, size - r - 1, pos - r - 1);
+			int rightPart = this.splitRight;
+			int rightPartHeight = this.splitRightHeight;
+			this.splitLeft = this.join(l, leftHeight, r, n, this.splitLeft, this.splitLeftHeight);
+			this.splitLeftHeight = this.joinedHeight;
+			this.splitRight = rightPart;
+			this.splitRightHeight = rightPartHeight;
+		}
+	}
+
+	private int concatenateHelper(int n, int height, byte dir, int key, int v, int leftSize) {
+		int leftSubtree = (dir == RIGHT) ? n : v;
+		int rightSubtree = (dir == RIGHT) ? v : n;
+		if (n == NULL || height == 0) {
+			return this.paste(leftSubtree, key, rightSubtree, SAME, leftSize);
+		}
+		if (height == 1 && this.nodes.balance[n] == ArrayEditTree.not(dir)) {
+			return this.paste(leftSubtree, key, rightSubtree, ArrayEditTree.not(dir), leftSize);
+		}
+		int childSize = (dir == LEFT) ? leftSize : leftSize - this.nodes.rank[n] - 1;
+		int drop = (this.nodes.balance[n] == SAME || this.nodes.balance[n] == dir) ? 1 : 2;
+		int child = this.concatenateHelper(this.child(n, dir), height - drop, dir, key, v, childSize);
+		if (dir == LEFT)
+			this.nodes.rank[n] += leftSize + 1;
+		return this.check(n, child, dir);
+	}
+
+	private int paste(int l, int key, int r, byte code, int leftSize) {
+		this.change = INS;
+		this.nodes.left[key] = l;
+		this.nodes.right[key] = r;
+		this.nodes.balance[key] = code;
+		this.nodes.rank[key] = leftSize;
+		this.count(key);
+		return key;
+	}
+
+	/**
+	 * Node.check: makes child the child of n in direction dir and rebalances
+	 *
+	 * @return the new root of n's subtree
+	 */
+	private int check(int n, int child, byte dir) {
+		this.setChild(n, dir, child);
+		this.count(n);
+		if (this.change == NONE) {
+			return n;
+		}
+		// d is the direction the subtree grew / direction it did not shrink
+		byte d = (this.change == INS) ? dir : ArrayEditTree.not(dir);
+		if (this.nodes.balance[n] == d) {
+			if (this.nodes.balance[this.child(n, d)] == ArrayEditTree.not(d)) {
+				return this.doubleRotate(n, ArrayEditTree.not(d));
+			}
+			return this.singleRotate(n, ArrayEditTree.not(d));
+		}
+		if (this.nodes.balance[n] == ArrayEditTree.not(d)) {
+			this.nodes.balance[n] = SAME;
+			if (this.change == INS)
+				this.change = NONE;
+		} else {
+			this.nodes.balance[n] = d;
+			if (this.change == DEL)
+				this.change = NONE;
+		}
+		return n;
+	}
+
+	/**
+	 * Sets the newline count of n from its children's, which every edit
+	 * going back up through n does, so the counts need no fixing on the way
+	 * down
+	 */
+	private void count(int n) {
+		this.nodes.lines[n] = this.nodes.lines[this.nodes.left[n]] + this.nodes.lines[this.nodes.right[n]]
+				+ ((this.nodes.element[n] == '\n') ? 1 : 0);
+	}
+
+	private int singleRotate(int n, byte dir) {
+		byte other = ArrayEditTree.not(dir);
+		int b = this.child(n, other);
+		this.setChild(n, other, this.child(b, dir));
+		this.setChild(b, dir, n);
+		if (this.nodes.balance[b] != SAME) {
+			this.nodes.balance[n] = SAME;
+			this.nodes.balance[b] = SAME;
+			if (this.change == INS)
+				this.change = NONE;
+		} else {
+			this.nodes.balance[n] = other;
+			this.nodes.balance[b] = dir;
+			if (this.change == DEL)
+				this.change = NONE;
+		}
+		if (dir == LEFT)
+			this.nodes.rank[b] += this.nodes.rank[n] + 1;
+		else
+			this.nodes.rank[n] -= this.nodes.rank[b] + 1;
+		this.count(n);
+		this.count(b);
+		this.rotationCount++;
+		return b;
+	}
+
+	private int doubleRotate(int n, byte dir) {
+		byte other = ArrayEditTree.not(dir);
+		int b = this.child(n, other);
+		int c = this.child(b, dir);
+		this.setChild(n, other, this.child(c, dir));
+		this.setChild(b, dir, this.child(c, other));
+		this.setChild(c, other, b);
+		this.setChild(c, dir, n);
+		if (this.nodes.balance[c] == SAME) {
+			this.nodes.balance[b] = SAME;
+			this.nodes.balance[n] = SAME;
+		} else if (this.nodes.balance[c] == other) {
+			this.nodes.balance[b] = SAME;
+			this.nodes.balance[n] = dir;
+			this.nodes.balance[c] = SAME;
+		} else {
+			this.nodes.balance[n] = SAME;
+			this.nodes.balance[b] = other;
+			this.nodes.balance[c] = SAME;
+		}
+		if (this.change == INS)
+			this.change = NONE;
+		if (dir == RIGHT) {
+			this.nodes.rank[n] -= this.nodes.rank[c] + 1 + this.nodes.rank[b] + 1;
+			this.nodes.rank[c] += this.nodes.rank[b] + 1;
+		} else {
+			this.nodes.rank[b] -= this.nodes.rank[c] + 1;
+			this.nodes.rank[c] += this.nodes.rank[n] + 1;
+		}
+		this.count(n);
+		this.count(b);
+		this.count(c);
+		this.rotationCount += 2;
+		return c;
+	}
+
+	private int child(int n, byte dir) {
+		return (dir == LEFT) ? this.nodes.left[n] : this.nodes.right[n];
+	}
+
+	private void setChild(int n, byte dir, int child) {
+		if (dir == LEFT) {
+			this.nodes.left[n] = child;
+		} else {
+			this.nodes.right[n] = child;
+		}
+	}
+
+	private static byte not(byte dir) {
+		return (dir == LEFT) ? RIGHT : LEFT;
+	}
+
+	/**
+	 * Walks the characters in order from any position, keeping the nodes
+	 * whose characters are still to come on a stack of indexes
+	 */
+	private class Walk implements PrimitiveIterator.OfInt {
+
+		private int[] stack;
+		private int depth;
+		// the node holding the next character, or NULL at the end
+		private int node;
+
+		public Walk(int pos) {
+			this.stack = new int[ArrayEditTree.this.height() + 1];
+			this.depth = 0;
+			this.node = NULL;
+			int n = ArrayEditTree.this.root;
+			while (n != NULL) {
+				int r = ArrayEditTree.this.nodes.rank[n];
+				if (pos < r) {
+					this.stack[this.depth++] = n;
+					n = ArrayEditTree.this.nodes.left[n];
+				} else if (pos > r) {
+					pos -= r + 1;
+					n = ArrayEditTree.this.nodes.right[n];
+				} else {
+					this.node = n;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.node != NULL;
+		}
+
+		@Override
+		public int nextInt() {
+			return this.nextChar();
+		}
+
+		public char nextChar() throws NoSuchElementException {
+			if (this.node == NULL) {
+				throw new NoSuchElementException();
+			}
+			char ch = ArrayEditTree.this.nodes.element[this.node];
+			int n = ArrayEditTree.this.nodes.right[this.node];
+			while (n != NULL) {
+				this.stack[this.depth++] = n;
+				n = ArrayEditTree.this.nodes.left[n];
+			}
+			this.node = (this.depth == 0) ? NULL : this.stack[--this.depth];
+			return ch;
+		}
+	}
+}
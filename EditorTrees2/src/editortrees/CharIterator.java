@@ -0,0 +1,137 @@
+package editortrees;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Walks the characters of a tree in order, starting from any position. It
+ * goes down to the start once in O(log N) time and then keeps the path back
+ * up in an array, so each following character takes amortized O(1) time and
+ * nothing is allocated or recursed per character. nextInt() gives the same
+ * characters as nextChar(), as ints.
+ */
+public class CharIterator implements PrimitiveIterator.OfInt {
+
+	// the nodes on the path whose characters are still to come, deepest last
+	private Node[] stack;
+	private int depth;
+	// the node holding the next character, or null at the end
+	private Node node;
+	private int offset;
+
+	/**
+	 * @param root
+	 *            root of the tree to walk
+	 * @param pos
+	 *            position of the first character to give, from 0 to the size
+	 *            of the tree
+	 */
+	public CharIterator(Node root, int pos) {
+		this.stack = new Node[root.height() + 1];
+		this.seek(root, pos);
+	}
+
+	/**
+	 * Starts this iterator over at pos, reusing its path array when it is big
+	 * enough
+	 * 
+	 * @param root
+	 *            root of the tree to walk
+	 * @param pos
+	 *            position of the first character to give, from 0 to the size
+	 *            of the tree
+	 */
+	public void seek(Node root, int pos) {
+		int height = root.height();
+		if (this.stack.length < height + 1) {
+			this.stack = new Node[height + 1];
+		}
+		this.depth = 0;
+		Node n = root;
+		while (!(n instanceof Null_Node)) {
+			if (pos < n.rank) {
+				this.stack[this.depth++] = n;
+				n = n.left;
+			} else if (pos >= n.rank + n.width()) {
+				pos -= n.rank + n.width();
+				n = n.right;
+			} else {
+				this.node = n;
+				this.offset = pos - n.rank;
+				return;
+			}
+		}
+		this.node = null;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return this.node != null;
+	}
+
+	@Override
+	public int nextInt() {
+		return this.nextChar();
+	}
+
+	/**
+	 * @return the next character in order
+	 * @throws NoSuchElementException
+	 *             if there are no more
+	 */
+	public char nextChar() throws NoSuchElementException {
+		if (this.node == null) {
+			throw new NoSuchElementException();
+		}
+		char ch = this.node.charAt(this.offset);
+		if (++this.offset == this.node.width()) {
+			this.advance();
+		}
+		return ch;
+	}
+
+	/**
+	 * Copies up to len of the next characters into dst, a whole run of a
+	 * chunk at a time, as Reader.read does
+	 * 
+	 * @param dst
+	 * @param off
+	 *            where in dst the first character goes
+	 * @param len
+	 *            the most characters to copy
+	 * @return how many characters were copied, or -1 if there were none left
+	 */
+	public int read(char[] dst, int off, int len) {
+		if (this.node == null) {
+			return -1;
+		}
+		int copied = 0;
+		while (copied < len && this.node != null) {
+			int n = Math.min(len - copied, this.node.width() - this.offset);
+			this.node.getChars(this.offset, this.offset + n, dst, off + copied);
+			copied += n;
+			this.offset += n;
+			if (this.offset == this.node.width()) {
+				this.advance();
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Moves on to the first node after the current one
+	 */
+	private void advance() {
+		Node n = this.node.right;
+		while (!(n instanceof Null_Node)) {
+			this.stack[this.depth++] = n;
+			n = n.left;
+		}
+		this.offset = 0;
+		if (this.depth == 0) {
+			this.node = null;
+		} else {
+			this.node = this.stack[--this.depth];
+		}
+	}
+}
@@ -0,0 +1,550 @@
+package editortrees;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A node that holds a run of characters instead of a single one. Rank counts
+ * characters, not nodes, so these can share a tree with ordinary nodes. A
+ * chunk that fills up is split in two, and a chunk that empties is taken out
+ * of the tree.
+ * 
+ * While its characters are all Latin-1, a chunk keeps them one to a byte, as
+ * the JDK's compact strings do, which halves the memory of plain ASCII text.
+ * The first wider character to arrive widens the chunk to chars, and
+ * splitting a wide chunk narrows whichever half is Latin-1 again.
+ * 
+ * A chunk's array is sized to what it holds and grows as characters arrive,
+ * up to the chunk's capacity, so that small chunks stay small. A delete that
+ * leaves a chunk less than half full merges it with a neighbour when the two
+ * fit in one.
+ */
+public class ChunkNode extends Node {
+
+	// the highest character a byte holds
+	private static final char LATIN1 = 0xFF;
+	// the smallest array a chunk grows to
+	private static final int FIRST = 8;
+
+	// the characters, in bytes while they are all Latin-1 and in chars once
+	// one is not. Exactly one of the two is null.
+	byte[] bytes;
+	char[] chars;
+	int count;
+	// the most characters this chunk may hold, which its array grows up to
+	private int capacity;
+	// hash of this chunk's characters alone, and BASE to the power of count.
+	// chunkPow is 0 until they are needed after the characters change.
+	long chunkHash;
+	long chunkPow;
+	// number of newlines among this chunk's characters
+	int chunkLines;
+	// number of low surrogates among them, out of date with the hash
+	int chunkLows;
+
+	/**
+	 * Makes a chunk holding only ch
+	 *
+	 * @param ch
+	 * @param capacity
+	 *            the most characters this chunk may hold, at least 2
+	 */
+	public ChunkNode(char ch, int capacity) {
+		super(ch);
+		if (ch <= LATIN1) {
+			this.bytes = new byte[] { (byte) ch };
+		} else {
+			this.chars = new char[] { ch };
+		}
+		this.count = 1;
+		this.capacity = capacity;
+		this.rehash();
+	}
+
+	/**
+	 * Makes a chunk holding the characters of st from start up to but not
+	 * including end
+	 */
+	public ChunkNode(CharSequence st, int start, int end, int capacity) {
+		super(st.charAt(start));
+		this.bytes = ChunkNode.latin1(st, start, end);
+		if (this.bytes == null) {
+			this.chars = new char[end - start];
+			if (st instanceof String) {
+				((String) st).getChars(start, end, this.chars, 0);
+			} else if (st instanceof CharBuffer && ((CharBuffer) st).hasArray()) {
+				CharBuffer buffer = (CharBuffer) st;
+				int from = buffer.arrayOffset() + buffer.position() + start;
+				System.arraycopy(buffer.array(), from, this.chars, 0, end - start);
+			} else {
+				for (int i = start; i < end; i++) {
+					this.chars[i - start] = st.charAt(i);
+				}
+			}
+		}
+		this.count = end - start;
+		this.capacity = capacity;
+		this.chunkLines = this.ownLines(this.count);
+		this.chunkPow = 0;
+		this.updateLazily();
+	}
+
+	/**
+	 * @return the characters of st from start up to but not including end in
+	 *         a byte array of their length, or null if one of them is not
+	 *         Latin-1
+	 */
+	private static byte[] latin1(CharSequence st, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		if (st instanceof CharBuffer && ((CharBuffer) st).hasArray()) {
+			CharBuffer buffer = (CharBuffer) st;
+			char[] array = buffer.array();
+			int from = buffer.arrayOffset() + buffer.position() + start;
+			for (int i = 0; i < end - start; i++) {
+				char ch = array[from + i];
+				if (ch > LATIN1) {
+					return null;
+				}
+				bytes[i] = (byte) ch;
+			}
+			return bytes;
+		}
+		for (int i = start; i < end; i++) {
+			char ch = st.charAt(i);
+			if (ch > LATIN1) {
+				return null;
+			}
+			bytes[i - start] = (byte) ch;
+		}
+		return bytes;
+	}
+
+	/**
+	 * constructor that copies a chunk passed including all fields.
+	 *
+	 * @param n
+	 *            the chunk to copy
+	 */
+	public ChunkNode(ChunkNode n) {
+		super(n);
+		if (n.bytes != null) {
+			this.bytes = Arrays.copyOf(n.bytes, n.bytes.length);
+		} else {
+			this.chars = Arrays.copyOf(n.chars, n.chars.length);
+		}
+		this.count = n.count;
+		this.capacity = n.capacity;
+		this.chunkHash = n.chunkHash;
+		this.chunkPow = n.chunkPow;
+		this.chunkLines = n.chunkLines;
+		this.chunkLows = n.chunkLows;
+	}
+
+	@Override
+	public Node deepCopy() {
+		return new ChunkNode(this);
+	}
+
+	@Override
+	public Node copy() {
+		ChunkNode copy = (ChunkNode) super.copy();
+		if (this.bytes != null) {
+			copy.bytes = this.bytes.clone();
+		} else {
+			copy.chars = this.chars.clone();
+		}
+		return copy;
+	}
+
+	@Override
+	public int width() {
+		return this.count;
+	}
+
+	@Override
+	public char charAt(int offset) {
+		if (this.bytes != null) {
+			return (char) (this.bytes[offset] & 0xFF);
+		}
+		return this.chars[offset];
+	}
+
+	@Override
+	public void appendTo(StringBuilder sb, int start, int end) {
+		if (this.bytes != null) {
+			// decoding Latin-1 is a plain copy, and so is appending the
+			// result to a builder that is still Latin-1 itself
+			sb.append(new String(this.bytes, start, end - start, StandardCharsets.ISO_8859_1));
+		} else {
+			sb.append(this.chars, start, end - start);
+		}
+	}
+
+	@Override
+	public void getChars(int start, int end, char[] dst, int at) {
+		if (this.bytes != null) {
+			for (int i = start; i < end; i++) {
+				dst[at++] = (char) (this.bytes[i] & 0xFF);
+			}
+		} else {
+			System.arraycopy(this.chars, start, dst, at, end - start);
+		}
+	}
+
+	/**
+	 * @return the most characters this chunk may hold
+	 */
+	int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return how many characters this chunk's array holds before it has to
+	 *         grow
+	 */
+	int length() {
+		return (this.bytes != null) ? this.bytes.length : this.chars.length;
+	}
+
+	/**
+	 * Resizes this chunk's array to the given length, which must fit its
+	 * characters
+	 */
+	private void resize(int length) {
+		if (this.bytes != null) {
+			this.bytes = Arrays.copyOf(this.bytes, length);
+		} else {
+			this.chars = Arrays.copyOf(this.chars, length);
+		}
+	}
+
+	/**
+	 * Grows this chunk's array, by half again but to at least FIRST, so that
+	 * it holds at least the given number of characters
+	 */
+	private void ensure(int needed) {
+		int length = this.length();
+		if (needed > length) {
+			int grown = Math.max(length + (length >> 1), FIRST);
+			this.resize(Math.max(Math.min(grown, this.capacity), needed));
+		}
+	}
+
+	/**
+	 * @return true if this chunk keeps its characters one to a byte
+	 */
+	public boolean isLatin1() {
+		return this.bytes != null;
+	}
+
+	/**
+	 * Moves this chunk's characters from bytes to chars, so that it can take
+	 * one that is not Latin-1
+	 */
+	private void widen() {
+		this.chars = new char[this.bytes.length];
+		for (int i = 0; i < this.count; i++) {
+			this.chars[i] = (char) (this.bytes[i] & 0xFF);
+		}
+		this.bytes = null;
+	}
+
+	/**
+	 * Moves this chunk's characters from chars back to bytes if they are all
+	 * Latin-1 again
+	 */
+	private void narrow() {
+		for (int i = 0; i < this.count; i++) {
+			if (this.chars[i] > LATIN1) {
+				return;
+			}
+		}
+		this.bytes = new byte[this.chars.length];
+		for (int i = 0; i < this.count; i++) {
+			this.bytes[i] = (byte) this.chars[i];
+		}
+		this.chars = null;
+	}
+
+	@Override
+	public long ownHash() {
+		this.hashChunk();
+		return this.chunkHash;
+	}
+
+	@Override
+	public long ownPow() {
+		this.hashChunk();
+		return this.chunkPow;
+	}
+
+	private void hashChunk() {
+		if (this.chunkPow == 0) {
+			this.chunkHash = this.ownHash(this.count);
+			this.chunkPow = PolyHash.power(PolyHash.BASE, this.count);
+			this.chunkLows = this.ownLows(this.count);
+		}
+	}
+
+	@Override
+	public long ownHash(int end) {
+		if (this.bytes != null) {
+			return PolyHash.of(this.bytes, 0, end);
+		}
+		return PolyHash.of(this.chars, 0, end);
+	}
+
+	@Override
+	public int ownLows() {
+		this.hashChunk();
+		return this.chunkLows;
+	}
+
+	@Override
+	public int ownLows(int end) {
+		if (this.bytes != null) {
+			return 0;
+		}
+		int lows = 0;
+		for (int i = 0; i < end; i++) {
+			if (Character.isLowSurrogate(this.chars[i])) {
+				lows++;
+			}
+		}
+		return lows;
+	}
+
+	@Override
+	public int ownCodePoint(int k) {
+		if (this.bytes != null) {
+			return k;
+		}
+		for (int i = 0; i < this.count; i++) {
+			if (!Character.isLowSurrogate(this.chars[i]) && k-- == 0) {
+				return i;
+			}
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	@Override
+	public int ownLines() {
+		return this.chunkLines;
+	}
+
+	@Override
+	public int ownLines(int end) {
+		int lines = 0;
+		for (int i = 0; i < end; i++) {
+			if (this.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	@Override
+	public int ownNewline(int k) {
+		for (int i = 0; i < this.count; i++) {
+			if (this.charAt(i) == '\n' && --k == 0) {
+				return i;
+			}
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Recomputes this chunk's own hash and newline count after its characters
+	 * change, then those of its subtree
+	 */
+	private void rehash() {
+		this.chunkPow = 0;
+		this.chunkLines = this.ownLines(this.count);
+		this.update();
+	}
+
+	/**
+	 * Notes that ch was added to this chunk, or taken out if change is -1.
+	 * The newline counts stay exact, but the hashes are only marked out of
+	 * date, since typing changes the same chunk many times before anything
+	 * reads them. Whoever changes the chunk fixes up the nodes above it.
+	 */
+	private void changed(char ch, int change) {
+		if (ch == '\n') {
+			this.chunkLines += change;
+			this.lines += change;
+		}
+		this.chunkPow = 0;
+		this.invalidate();
+	}
+
+	@Override
+	public char getElement() {
+		return this.charAt(0);
+	}
+
+	/**
+	 * Puts ch at the given index of this chunk. If the chunk is full, the part
+	 * after the index moves to a new chunk that becomes this one's successor.
+	 *
+	 * @param ch
+	 * @param offset
+	 * @param w
+	 *            the wrap of the tree being changed, which this belongs to
+	 * @return w, with the new head of this subtree
+	 */
+	Wrap insertChar(char ch, int offset, Wrap w) {
+		if (this.hasRoom()) {
+			this.put(ch, offset);
+			return w.set(this, Change.NONE);
+		}
+		ChunkNode next;
+		if (offset == this.count) {
+			// typing at the end of a full chunk fills a fresh one
+			next = new ChunkNode(ch, this.capacity);
+			next.epoch = w.epoch;
+		} else {
+			int half = this.count / 2;
+			next = this.splitOff(half);
+			if (offset <= half) {
+				this.put(ch, offset);
+			} else {
+				next.put(ch, offset - half);
+			}
+		}
+		w.allocated++;
+		this.right.insertFirst(next, w);
+		this.check(w, RIGHT);
+		return w;
+	}
+
+	@Override
+	public ChunkNode splitOff(int offset) {
+		ChunkNode next = new ChunkNode(this.charAt(offset), this.capacity);
+		next.epoch = this.epoch;
+		// room for the rest, and for the character that may be about to
+		// arrive
+		next.resize(Math.min(this.count - offset + 1, this.capacity));
+		if (this.bytes != null) {
+			System.arraycopy(this.bytes, offset, next.bytes, 0, this.count - offset);
+		} else {
+			if (next.bytes != null) {
+				next.widen();
+			}
+			System.arraycopy(this.chars, offset, next.chars, 0, this.count - offset);
+		}
+		next.count = this.count - offset;
+		this.count = offset;
+		if (this.chars != null) {
+			this.narrow();
+			next.narrow();
+		}
+		next.rehash();
+		this.rehash();
+		return next;
+	}
+
+	/**
+	 * @return true if this chunk can take another character
+	 */
+	boolean hasRoom() {
+		return this.count < this.capacity;
+	}
+
+	/**
+	 * Shifts the characters from offset on over by one and puts ch in the gap.
+	 * The chunk must not be full.
+	 */
+	void put(char ch, int offset) {
+		if (this.bytes != null && ch > LATIN1) {
+			this.widen();
+		}
+		this.ensure(this.count + 1);
+		if (this.bytes != null) {
+			System.arraycopy(this.bytes, offset, this.bytes, offset + 1, this.count - offset);
+			this.bytes[offset] = (byte) ch;
+		} else {
+			System.arraycopy(this.chars, offset, this.chars, offset + 1, this.count - offset);
+			this.chars[offset] = ch;
+		}
+		this.count++;
+		this.changed(ch, 1);
+	}
+
+	@Override
+	public Wrap removeChar(int offset, Wrap w) {
+		if (this.count == 1) {
+			this.unlink(w);
+			w.delVal = this.charAt(0);
+			return w;
+		}
+		w.delVal = this.take(offset);
+		if (this.isSmall()) {
+			w.shrunk = this;
+			w.shrunkAt = offset;
+		}
+		return w.set(this, Change.NONE);
+	}
+
+	/**
+	 * @return true if this chunk is less than half full, and so worth merging
+	 *         with a neighbour
+	 */
+	boolean isSmall() {
+		return this.count < this.capacity / 2;
+	}
+
+	/**
+	 * Adds the characters of other to the end of this chunk, or to its front.
+	 * The two must fit in this one. Like any change to the characters, this
+	 * leaves fixing up the nodes above to the caller.
+	 *
+	 * @param other
+	 *            the chunk whose characters to take, which is left as it was
+	 * @param front
+	 *            true to put them before this chunk's own
+	 */
+	void absorb(ChunkNode other, boolean front) {
+		if (this.bytes != null && other.bytes == null) {
+			this.widen();
+		}
+		this.ensure(this.count + other.count);
+		int at = front ? 0 : this.count;
+		if (this.bytes != null) {
+			if (front) {
+				System.arraycopy(this.bytes, 0, this.bytes, other.count, this.count);
+			}
+			System.arraycopy(other.bytes, 0, this.bytes, at, other.count);
+		} else {
+			if (front) {
+				System.arraycopy(this.chars, 0, this.chars, other.count, this.count);
+			}
+			other.getChars(0, other.count, this.chars, at);
+		}
+		this.count += other.count;
+		this.chunkLines += other.chunkLines;
+		this.lines += other.chunkLines;
+		this.chunkPow = 0;
+		this.invalidate();
+	}
+
+	/**
+	 * Removes and returns the character at offset, shifting the rest back. The
+	 * chunk must hold more than one character.
+	 */
+	char take(int offset) {
+		char removed = this.charAt(offset);
+		if (this.bytes != null) {
+			System.arraycopy(this.bytes, offset + 1, this.bytes, offset, this.count - offset - 1);
+		} else {
+			System.arraycopy(this.chars, offset + 1, this.chars, offset, this.count - offset - 1);
+		}
+		this.count--;
+		this.changed(removed, -1);
+		if (this.length() > FIRST && this.count < this.length() / 4) {
+			this.resize(Math.max(this.count * 2, FIRST));
+		}
+		return removed;
+	}
+}
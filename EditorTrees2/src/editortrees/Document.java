@@ -0,0 +1,215 @@
+package editortrees;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * A text that one thread edits while any number of others read it. The
+ * writer edits a tree of its own and after each write publishes a snapshot of
+ * it, which never changes again; snapshots share all but the O(log N) nodes
+ * each edit copies. A reader takes the latest snapshot with one volatile read
+ * and no lock, and sees that version whole however long it reads it. A
+ * version only offers the methods that read, so no reader can change what
+ * the others see.
+ */
+public class Document {
+
+	/**
+	 * One published version of the text. It only reads the snapshot it was
+	 * published with, so any number of threads may use it at once; to edit
+	 * the text, take a copy.
+	 */
+	public static class Version {
+
+		private final EditTree text;
+		private final long number;
+
+		Version(EditTree text, long number) {
+			this.text = text;
+			this.number = number;
+		}
+
+		/**
+		 * @return how many writes came before this version
+		 */
+		public long getNumber() {
+			return this.number;
+		}
+
+		/**
+		 * @return the number of characters in this version
+		 */
+		public int size() {
+			return this.text.size();
+		}
+
+		/**
+		 * @param pos
+		 * @return the character at pos
+		 * @throws IndexOutOfBoundsException
+		 */
+		public char get(int pos) throws IndexOutOfBoundsException {
+			return this.text.get(pos);
+		}
+
+		/**
+		 * @param pos
+		 * @param length
+		 * @return the length characters starting at pos
+		 * @throws IndexOutOfBoundsException
+		 */
+		public String get(int pos, int length) throws IndexOutOfBoundsException {
+			return this.text.get(pos, length);
+		}
+
+		/**
+		 * @param s
+		 * @param pos
+		 * @return the position of the first occurrence of s not before pos,
+		 *         or -1 if there is none
+		 */
+		public int find(String s, int pos) {
+			return this.text.find(s, pos);
+		}
+
+		/**
+		 * @param s
+		 * @param from
+		 * @param to
+		 * @return the positions of the occurrences of s within the range, as
+		 *         EditTree.findAll gives them
+		 * @throws IndexOutOfBoundsException
+		 */
+		public IntStream findAll(String s, int from, int to) throws IndexOutOfBoundsException {
+			return this.text.findAll(s, from, to);
+		}
+
+		/**
+		 * @return the number of lines in this version
+		 */
+		public int lineCount() {
+			return this.text.lineCount();
+		}
+
+		/**
+		 * @param line
+		 * @return the position of the line's first character
+		 * @throws IndexOutOfBoundsException
+		 */
+		public int lineStart(int line) throws IndexOutOfBoundsException {
+			return this.text.lineStart(line);
+		}
+
+		/**
+		 * @param pos
+		 * @return the number of the line holding pos
+		 * @throws IndexOutOfBoundsException
+		 */
+		public int lineOf(int pos) throws IndexOutOfBoundsException {
+			return this.text.lineOf(pos);
+		}
+
+		/**
+		 * @param line
+		 * @return the characters of the line, without its newline
+		 * @throws IndexOutOfBoundsException
+		 */
+		public String getLine(int line) throws IndexOutOfBoundsException {
+			return this.text.getLine(line);
+		}
+
+		/**
+		 * @return a view of this version's characters, for one thread to read
+		 */
+		public CharSequence asCharSequence() {
+			return this.text.asCharSequence();
+		}
+
+		/**
+		 * Writes this version's characters to out, as EditTree.writeTo does
+		 * 
+		 * @param out
+		 * @throws IOException
+		 *             if out throws one
+		 */
+		public void writeTo(Writer out) throws IOException {
+			this.text.writeTo(out);
+		}
+
+		/**
+		 * Copies hash without writing to this version's nodes, which other
+		 * threads may be reading: the first regionHash or code point call on
+		 * a copy copies whatever part of the version is not hashed yet. A
+		 * writer that hashes its tree before each write returns publishes
+		 * versions that are already hashed.
+		 * 
+		 * @return a tree of this version's text, in O(1) time, that may be
+		 *         edited without changing this version
+		 */
+		public EditTree copy() {
+			return this.text.share();
+		}
+
+		@Override
+		public String toString() {
+			return this.text.toString();
+		}
+	}
+
+	private final EditTree tree;
+	private volatile Version current;
+
+	/**
+	 * Constructs an empty document
+	 */
+	public Document() {
+		this(new EditTree());
+	}
+
+	/**
+	 * Constructs a document that starts out with the text of tree, which it
+	 * takes over
+	 *
+	 * @param tree
+	 */
+	public Document(EditTree tree) {
+		this.tree = tree;
+		this.current = new Version(this.publish(), 0);
+	}
+
+	/**
+	 * Gets the latest version, without blocking. Writes made after this
+	 * returns never show up in it.
+	 *
+	 * @return the latest version published
+	 */
+	public Version read() {
+		return this.current;
+	}
+
+	/**
+	 * Makes edits to the document and then publishes them as one new version.
+	 * Readers see none of the edits until they are all done. Writes from
+	 * different threads take turns, but readers never wait for them.
+	 *
+	 * @param edit
+	 *            makes the edits to the tree it is given, which must not be
+	 *            kept after it returns
+	 * @return the version published
+	 */
+	public synchronized Version write(Consumer<EditTree> edit) {
+		edit.accept(this.tree);
+		Version v = new Version(this.publish(), this.current.number + 1);
+		this.current = v;
+		return v;
+	}
+
+	/**
+	 * @return a snapshot of the writer's tree that is safe to share
+	 */
+	private EditTree publish() {
+		return this.tree.snapshot();
+	}
+}
@@ -0,0 +1,71 @@
+package editortrees;
+
+/**
+ * One change in a batch for EditTree.applyBatch: the length characters at a
+ * position are replaced by some text. An insert replaces no characters and a
+ * delete puts in no text. Positions are those of the tree before any edit of
+ * the batch is made.
+ */
+public class Edit {
+
+	private final int pos;
+	private final int length;
+	private final String text;
+
+	/**
+	 * @param pos
+	 *            position of the first character replaced
+	 * @param length
+	 *            number of characters replaced
+	 * @param text
+	 *            the characters to put in their place
+	 * @throws IllegalArgumentException
+	 *             if length is negative or text is null
+	 */
+	public Edit(int pos, int length, String text) throws IllegalArgumentException {
+		if (length < 0 || text == null) {
+			throw new IllegalArgumentException();
+		}
+		this.pos = pos;
+		this.length = length;
+		this.text = text;
+	}
+
+	/**
+	 * @return an edit putting text in at pos
+	 */
+	public static Edit insert(int pos, String text) {
+		return new Edit(pos, 0, text);
+	}
+
+	/**
+	 * @return an edit taking out the length characters at pos
+	 */
+	public static Edit delete(int pos, int length) {
+		return new Edit(pos, length, "");
+	}
+
+	/**
+	 * @return an edit replacing the length characters at pos with text
+	 */
+	public static Edit replace(int pos, int length, String text) {
+		return new Edit(pos, length, text);
+	}
+
+	public int getPosition() {
+		return this.pos;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	public String getText() {
+		return this.text;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.pos + ", " + (this.pos + this.length) + ") -> \"" + this.text + "\"";
+	}
+}
@@ -0,0 +1,59 @@
+package editortrees;
+
+import editortrees.EditMetrics.Operation;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one operation on a tree that keeps metrics with
+ * events on. Recordings only hold them if they enable editortrees.Edit.
+ */
+@Name("editortrees.Edit")
+@Label("Edit Tree Operation")
+@Category("Editor Trees")
+@Description("An operation on an EditTree")
+class EditEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Latency")
+	@Timespan(Timespan.NANOSECONDS)
+	long latency;
+
+	@Label("Position")
+	int position;
+
+	@Label("Size")
+	@Description("Characters in the tree afterwards")
+	int size;
+
+	@Label("Depth")
+	@Description("Depth of the node the operation worked on, or -1")
+	int depth;
+
+	@Label("Rotations")
+	int rotations;
+
+	@Label("Nodes Allocated")
+	int allocated;
+
+	static void emit(Operation op, long nanos, int pos, int size, int depth, int rotations, int allocated) {
+		EditEvent event = new EditEvent();
+		if (!event.isEnabled()) {
+			return;
+		}
+		event.operation = op.name();
+		event.latency = nanos;
+		event.position = pos;
+		event.size = size;
+		event.depth = depth;
+		event.rotations = rotations;
+		event.allocated = allocated;
+		event.commit();
+	}
+}
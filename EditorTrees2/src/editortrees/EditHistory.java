@@ -0,0 +1,185 @@
+package editortrees;
+
+import java.util.ArrayDeque;
+
+/**
+ * The edits made to an EditTree that can be undone and redone. Each entry
+ * remembers a range of the tree and keeps the characters that range replaced
+ * as a tree of their own, so undoing or redoing an entry is just swapping the
+ * two, in O(log N) time whatever their lengths. Characters typed or deleted
+ * one after another at the same spot go into one entry.
+ */
+class EditHistory {
+
+	/**
+	 * The length characters at pos replaced the characters in other
+	 */
+	static class Entry {
+		int pos;
+		int length;
+		EditTree other;
+
+		public Entry(int pos, int length, EditTree other) {
+			this.pos = pos;
+			this.length = length;
+			this.other = other;
+		}
+	}
+
+	private ArrayDeque<Entry> undos;
+	private ArrayDeque<Entry> redos;
+	private int maxEntries;
+	private long maxChars;
+	private int chunkSize;
+	// characters held in the other trees of all entries
+	private long storedChars;
+	// whether typing or deleting one more character may go in the last entry
+	private boolean open;
+
+	/**
+	 * @param maxEntries
+	 *            the most entries to keep; older ones are forgotten
+	 * @param maxChars
+	 *            the most replaced characters to keep in all entries
+	 * @param chunkSize
+	 *            chunk size of the trees holding deleted characters
+	 */
+	public EditHistory(int maxEntries, long maxChars, int chunkSize) {
+		this.undos = new ArrayDeque<Entry>();
+		this.redos = new ArrayDeque<Entry>();
+		this.maxEntries = maxEntries;
+		this.maxChars = maxChars;
+		this.chunkSize = chunkSize;
+		this.storedChars = 0;
+		this.open = false;
+	}
+
+	/**
+	 * Records that length characters were inserted at pos
+	 *
+	 * @param typing
+	 *            true if this was a single character that may be merged with
+	 *            the characters typed just before it
+	 */
+	public void inserted(int pos, int length, boolean typing) {
+		this.clearRedos();
+		Entry last = this.undos.peekFirst();
+		if (typing && this.open && last.other.size() == 0 && pos == last.pos + last.length) {
+			last.length += length;
+			return;
+		}
+		this.push(new Entry(pos, length, new EditTree("", this.chunkSize)));
+		this.open = typing;
+	}
+
+	/**
+	 * Records that the single character ch was deleted from pos
+	 */
+	public void deleted(int pos, char ch) {
+		this.clearRedos();
+		Entry last = this.undos.peekFirst();
+		if (this.open && last.other.size() == 0 && pos >= last.pos && pos < last.pos + last.length) {
+			// deleting something just typed
+			last.length--;
+			return;
+		}
+		if (this.open && last.length == 0 && pos == last.pos) {
+			// delete key
+			last.other.add(ch);
+			this.storedChars++;
+			this.trim();
+			return;
+		}
+		if (this.open && last.length == 0 && pos + 1 == last.pos) {
+			// backspace
+			last.other.add(ch, 0);
+			last.pos = pos;
+			this.storedChars++;
+			this.trim();
+			return;
+		}
+		this.push(new Entry(pos, 0, new EditTree(String.valueOf(ch), this.chunkSize)));
+		this.open = true;
+	}
+
+	/**
+	 * Records that length characters at pos replaced the characters of
+	 * removed, which the history takes over
+	 */
+	public void replaced(int pos, int length, EditTree removed) {
+		this.clearRedos();
+		this.push(new Entry(pos, length, removed));
+		this.open = false;
+	}
+
+	/**
+	 * @return the entry to undo, or null if there is none
+	 */
+	public Entry takeUndo() {
+		return this.take(this.undos);
+	}
+
+	/**
+	 * @return the entry to redo, or null if there is none
+	 */
+	public Entry takeRedo() {
+		return this.take(this.redos);
+	}
+
+	/**
+	 * Keeps an entry that has just been undone so it can be redone
+	 */
+	public void putRedo(Entry e) {
+		this.redos.addFirst(e);
+		this.storedChars += e.other.size();
+		this.trim();
+	}
+
+	/**
+	 * Keeps an entry that has just been redone so it can be undone again
+	 */
+	public void putUndo(Entry e) {
+		this.undos.addFirst(e);
+		this.storedChars += e.other.size();
+		this.trim();
+	}
+
+	private Entry take(ArrayDeque<Entry> entries) {
+		this.open = false;
+		Entry e = entries.pollFirst();
+		if (e != null) {
+			this.storedChars -= e.other.size();
+		}
+		return e;
+	}
+
+	private void push(Entry e) {
+		this.undos.addFirst(e);
+		this.storedChars += e.other.size();
+		this.trim();
+	}
+
+	private void clearRedos() {
+		for (Entry e : this.redos) {
+			this.storedChars -= e.other.size();
+		}
+		this.redos.clear();
+	}
+
+	/**
+	 * Forgets the oldest entries until the history is within its limits
+	 */
+	private void trim() {
+		while (this.undos.size() + this.redos.size() > this.maxEntries || this.storedChars > this.maxChars) {
+			ArrayDeque<Entry> oldest = this.undos.isEmpty() ? this.redos : this.undos;
+			Entry e = oldest.pollLast();
+			if (e == null) {
+				return;
+			}
+			this.storedChars -= e.other.size();
+			if (oldest == this.undos && this.undos.isEmpty()) {
+				this.open = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package editortrees;
+
+import editortrees.Node.Wrap;
+
+/**
+ * Counts what an EditTree does while it is asked to: how many of each
+ * operation it ran and how long they took, the rotations and new nodes its
+ * edits needed, and how deep in the tree its operations worked. A tree only
+ * keeps these after collectMetrics is called; until then each operation just
+ * finds its metrics field null and carries on.
+ * 
+ * Latencies go into histograms with a bucket for each power of two
+ * nanoseconds, so that recording one takes a few instructions and the
+ * histograms never grow. Bucket i counts the operations that took at least
+ * 2^(i-1) and less than 2^i nanoseconds.
+ */
+public class EditMetrics {
+
+	/**
+	 * The operations that are counted and timed. ADD and DELETE are of one
+	 * character, INSERT adds a string, REPLACE covers deleting or replacing a
+	 * range, BATCH is a whole applyBatch, and LOAD is reading a tree in.
+	 */
+	public enum Operation {
+		ADD, DELETE, GET, FIND, CONCATENATE, INSERT, REPLACE, BATCH, LOAD
+	}
+
+	private static final int BUCKETS = 64;
+
+	// whether each operation is also sent to Flight Recorder
+	private final boolean events;
+	private long[] counts;
+	private long[] nanos;
+	private long[][] latencies;
+	private long singleRotations;
+	private long doubleRotations;
+	private long allocated;
+	// how many operations worked at each depth, the deepest all in the last
+	private long[] depths;
+	private long depthTotal;
+	private int maxDepth;
+
+	/**
+	 * @param events
+	 *            whether each operation is also emitted as a Flight Recorder
+	 *            event, named editortrees.Edit
+	 */
+	public EditMetrics(boolean events) {
+		this.events = events;
+		this.reset();
+	}
+
+	/**
+	 * Starts all the counts over from 0
+	 */
+	public void reset() {
+		int operations = Operation.values().length;
+		this.counts = new long[operations];
+		this.nanos = new long[operations];
+		this.latencies = new long[operations][BUCKETS];
+		this.singleRotations = 0;
+		this.doubleRotations = 0;
+		this.allocated = 0;
+		this.depths = new long[BUCKETS];
+		this.depthTotal = 0;
+		this.maxDepth = 0;
+	}
+
+	/**
+	 * Counts an operation
+	 * 
+	 * @param op
+	 * @param nanos
+	 *            how long it took
+	 * @param pos
+	 *            the position it worked at, or -1
+	 * @param size
+	 *            the size of the tree afterwards
+	 * @param depth
+	 *            the depth of the node it worked on, or -1 if there was none
+	 * @param rotations
+	 *            the rotations it did
+	 * @param allocated
+	 *            the nodes it made
+	 */
+	void record(Operation op, long nanos, int pos, int size, int depth, int rotations, int allocated) {
+		int i = op.ordinal();
+		this.counts[i]++;
+		this.nanos[i] += nanos;
+		this.latencies[i][BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))]++;
+		if (depth >= 0) {
+			this.depths[Math.min(depth, BUCKETS - 1)]++;
+			this.depthTotal += depth;
+			this.maxDepth = Math.max(this.maxDepth, depth);
+		}
+		if (this.events) {
+			EditEvent.emit(op, nanos, pos, size, depth, rotations, allocated);
+		}
+	}
+
+	/**
+	 * Adds up the rotations and new nodes of an edit
+	 */
+	void tally(Wrap w) {
+		this.singleRotations += w.rotations - 2 * w.doubleRotations;
+		this.doubleRotations += w.doubleRotations;
+		this.allocated += w.allocated;
+	}
+
+	/**
+	 * @return how many times op was done
+	 */
+	public long count(Operation op) {
+		return this.counts[op.ordinal()];
+	}
+
+	/**
+	 * @return the nanoseconds all the times op was done took together
+	 */
+	public long totalNanos(Operation op) {
+		return this.nanos[op.ordinal()];
+	}
+
+	/**
+	 * @return the mean nanoseconds op took, or 0 if it was never done
+	 */
+	public double meanNanos(Operation op) {
+		long count = this.count(op);
+		return (count == 0) ? 0 : (double) this.totalNanos(op) / count;
+	}
+
+	/**
+	 * @return a copy of the latency histogram of op, described above
+	 */
+	public long[] latencyHistogram(Operation op) {
+		return this.latencies[op.ordinal()].clone();
+	}
+
+	/**
+	 * Estimates a latency percentile of op from its histogram
+	 * 
+	 * @param op
+	 * @param fraction
+	 *            of the operations, from 0 to 1; 0.99 gives the 99th
+	 *            percentile
+	 * @return a bound in nanoseconds that at least that fraction of the
+	 *         operations took less than, exact to within a factor of two, or
+	 *         0 if op was never done
+	 */
+	public long latencyBelow(Operation op, double fraction) {
+		long[] histogram = this.latencies[op.ordinal()];
+		long count = this.count(op);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen > 0 && seen >= fraction * count) {
+				return (i == BUCKETS - 1) ? Long.MAX_VALUE : 1L << i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of single rotations the edits did
+	 */
+	public long singleRotations() {
+		return this.singleRotations;
+	}
+
+	/**
+	 * @return the number of double rotations the edits did
+	 */
+	public long doubleRotations() {
+		return this.doubleRotations;
+	}
+
+	/**
+	 * @return the number of nodes the edits made: new nodes, chunks split off
+	 *         full ones, and copies of nodes shared with snapshots
+	 */
+	public long nodesAllocated() {
+		return this.allocated;
+	}
+
+	/**
+	 * @return a copy of how many operations worked at each depth of the tree,
+	 *         counting the root as 0
+	 */
+	public long[] depthHistogram() {
+		return this.depths.clone();
+	}
+
+	/**
+	 * @return the mean depth the operations worked at
+	 */
+	public double meanDepth() {
+		long count = 0;
+		for (long n : this.depths) {
+			count += n;
+		}
+		return (count == 0) ? 0 : (double) this.depthTotal / count;
+	}
+
+	/**
+	 * @return the deepest any operation worked
+	 */
+	public int maxDepth() {
+		return this.maxDepth;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Operation op : Operation.values()) {
+			if (this.count(op) > 0) {
+				sb.append(op.name().toLowerCase()).append(": ").append(this.count(op)).append(" ops, mean ")
+						.append(Math.round(this.meanNanos(op))).append(" ns, 99% under ")
+						.append(this.latencyBelow(op, 0.99)).append(" ns\n");
+			}
+		}
+		sb.append("rotations: ").append(this.singleRotations).append(" single, ").append(this.doubleRotations)
+				.append(" double\n");
+		sb.append("nodes allocated: ").append(this.allocated).append('\n');
+		sb.append("depth: mean ").append(String.format("%.1f", this.meanDepth())).append(", max ")
+				.append(this.maxDepth);
+		return sb.toString();
+	}
+}
@@ -1,26 +1,83 @@
 package editortrees;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import editortrees.EditHistory.Entry;
+import editortrees.EditMetrics.Operation;
+import editortrees.Node.Change;
+import editortrees.Node.Split;
 import editortrees.Node.Wrap;
 
 /**
  * 
  * A height-balanced binary tree with rank that could be the basis for a text
- * editor.
+ * editor. Its TextTree methods are the ones ArrayEditTree has too.
  *
  * @author Joy Stockwell, Sterling Hayden, and Brison Mondry. Created January 4,
  *         2018.
  */
-public class EditTree {
+public class EditTree implements TextTree<EditTree> {
 
 	private Node root;
+	// the number of characters and the height of the tree, kept up to date by
+	// every edit so that neither has to be found by walking down the tree
+	private int size;
+	private int height;
 	private int rotationCount;
+	// the most characters one node may hold; 1 means a node per character
+	private int chunkSize;
+	// this tree may change nodes of its own epoch in place and copies any
+	// others before changing them. It stays 0, changing everything in place,
+	// until the tree shares nodes with another.
+	private int epoch;
+	private static final AtomicInteger lastEpoch = new AtomicInteger();
+	// characters a CharSequence view reads from the tree at a time
+	private static final int VIEW_WINDOW = 256;
+	// the edits that can be undone and redone, or null if none are kept
+	private EditHistory history;
+	// the n-grams of the characters, for find, or null if they aren't kept
+	private GramIndex index;
+	// counts changes to the characters, so views can tell when they are stale
+	private int modCount;
+	// carries the results of each edit back up the tree; kept so that edits
+	// don't allocate one each
+	private Wrap wrap;
+	// what this tree's operations did and how long they took, or null if
+	// that isn't being kept
+	private EditMetrics metrics;
 
 	/**
 	 * Constructs an empty tree
 	 */
 	public EditTree() {
 		this.root = Node.getNull();
+		this.size = 0;
+		this.height = -1;
 		this.rotationCount = 0;
+		this.chunkSize = 1;
 	}
 
 	/**
@@ -31,7 +88,10 @@ public class EditTree {
 	 */
 	public EditTree(char ch) {
 		this.root = new Node(ch);
+		this.size = 1;
+		this.height = 0;
 		this.rotationCount = 0;
+		this.chunkSize = 1;
 	}
 
 	/**
@@ -43,10 +103,10 @@ public class EditTree {
 	 */
 	public EditTree(EditTree e) {
 		this.rotationCount = 0;
-		if (e.root instanceof Null_Node) {
-			this.root = Node.getNull();
-		} else
-			this.root = new Node(e.root);
+		this.chunkSize = e.chunkSize;
+		this.root = e.root.deepCopy();
+		this.size = e.size;
+		this.height = e.height;
 	}
 
 	/**
@@ -59,9 +119,155 @@ public class EditTree {
 	 *            the string that the created tree will output when its
 	 *            toString() is called
 	 */
-	public EditTree(String s) {
+	public EditTree(CharSequence s) {
+		this(s, 1);
+	}
+
+	/**
+	 * Creates an EditTree whose toString is s, storing up to chunkSize
+	 * characters in each node instead of one. This takes far less memory for
+	 * large documents; the tree behaves the same otherwise. Ranks, size() and
+	 * positions still count characters, but height() and toDebugString()
+	 * describe the nodes.
+	 * 
+	 * @param s,
+	 *            the string that the created tree will output when its
+	 *            toString() is called
+	 * @param chunkSize,
+	 *            the most characters one node may hold
+	 * @throws IllegalArgumentException
+	 *             if chunkSize is less than 1
+	 */
+	public EditTree(CharSequence s, int chunkSize) throws IllegalArgumentException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException();
+		}
 		this.rotationCount = 0;
-		this.root = Node.addFromString(s);
+		this.chunkSize = chunkSize;
+		this.root = Node.addFromString(s, chunkSize);
+		this.size = s.length();
+		this.height = this.root.height();
+	}
+
+	/**
+	 * Creates an EditTree holding the characters of chars, storing up to
+	 * chunkSize characters in each node. The array is read in place, not
+	 * copied first.
+	 * 
+	 * @param chars
+	 * @param chunkSize,
+	 *            the most characters one node may hold
+	 * @throws IllegalArgumentException
+	 *             if chunkSize is less than 1
+	 */
+	public EditTree(char[] chars, int chunkSize) throws IllegalArgumentException {
+		this(CharBuffer.wrap(chars), chunkSize);
+	}
+
+	/**
+	 * Reads the characters from in to its end into a new tree. They are built
+	 * into the tree a block at a time as they arrive, so the text is never
+	 * held whole outside the tree.
+	 * 
+	 * @param in
+	 *            where to read from; it is not closed
+	 * @param chunkSize,
+	 *            the most characters one node may hold
+	 * @return a tree of the characters read
+	 * @throws IOException
+	 *             if in throws one
+	 * @throws IllegalArgumentException
+	 *             if chunkSize is less than 1
+	 */
+	public static EditTree read(Reader in, int chunkSize) throws IOException, IllegalArgumentException {
+		return TreeIO.read(in, chunkSize, null);
+	}
+
+	/**
+	 * Reads as read(in, chunkSize) does, and counts the read as one LOAD in
+	 * metrics, which the new tree goes on keeping as collectMetrics would
+	 * have it do.
+	 * 
+	 * @param metrics
+	 *            where to count the read and the tree's later operations, or
+	 *            null to keep no metrics
+	 * @see #read(Reader, int)
+	 */
+	public static EditTree read(Reader in, int chunkSize, EditMetrics metrics)
+			throws IOException, IllegalArgumentException {
+		return TreeIO.read(in, chunkSize, metrics);
+	}
+
+	/**
+	 * Reads bytes from in to its end and decodes them into a new tree, a block
+	 * at a time. Malformed input is replaced, as new String(bytes, charset)
+	 * does.
+	 * 
+	 * @param in
+	 *            where to read from; it is not closed
+	 * @param charset
+	 *            the encoding of the bytes
+	 * @param chunkSize,
+	 *            the most characters one node may hold
+	 * @return a tree of the characters decoded
+	 * @throws IOException
+	 *             if in throws one
+	 * @throws IllegalArgumentException
+	 *             if chunkSize is less than 1
+	 */
+	public static EditTree read(ReadableByteChannel in, Charset charset, int chunkSize)
+			throws IOException, IllegalArgumentException {
+		return TreeIO.read(in, charset, chunkSize, null);
+	}
+
+	/**
+	 * Reads as read(in, charset, chunkSize) does, and counts the read as one
+	 * LOAD in metrics, which the new tree goes on keeping.
+	 * 
+	 * @param metrics
+	 *            where to count the read and the tree's later operations, or
+	 *            null to keep no metrics
+	 * @see #read(ReadableByteChannel, Charset, int)
+	 */
+	public static EditTree read(ReadableByteChannel in, Charset charset, int chunkSize, EditMetrics metrics)
+			throws IOException, IllegalArgumentException {
+		return TreeIO.read(in, charset, chunkSize, metrics);
+	}
+
+	/**
+	 * Decodes a whole file into a new tree, mapping it into memory a large
+	 * window at a time instead of copying its bytes onto the heap
+	 * 
+	 * @param in
+	 *            the file, which is read from its start whatever its position;
+	 *            it is not closed
+	 * @param charset
+	 *            the encoding of the file
+	 * @param chunkSize,
+	 *            the most characters one node may hold
+	 * @return a tree of the characters decoded
+	 * @throws IOException
+	 *             if the file cannot be mapped or read
+	 * @throws IllegalArgumentException
+	 *             if chunkSize is less than 1
+	 */
+	public static EditTree map(FileChannel in, Charset charset, int chunkSize)
+			throws IOException, IllegalArgumentException {
+		return TreeIO.map(in, charset, chunkSize, null);
+	}
+
+	/**
+	 * Maps a file in as map(in, charset, chunkSize) does, and counts it as one
+	 * LOAD in metrics, which the new tree goes on keeping.
+	 * 
+	 * @param metrics
+	 *            where to count the load and the tree's later operations, or
+	 *            null to keep no metrics
+	 * @see #map(FileChannel, Charset, int)
+	 */
+	public static EditTree map(FileChannel in, Charset charset, int chunkSize, EditMetrics metrics)
+			throws IOException, IllegalArgumentException {
+		return TreeIO.map(in, charset, chunkSize, metrics);
 	}
 
 	/**
@@ -72,8 +278,19 @@ public class EditTree {
 	 *            the node that is the root of this EditTree
 	 */
 	public EditTree(Node node) {
+		this(node, node.size(), node.height());
+	}
+
+	/**
+	 * Creates an EditTree whose root is node, whose size and height are
+	 * already known
+	 */
+	private EditTree(Node node, int size, int height) {
 		this.rotationCount = 0;
+		this.chunkSize = 1;
 		this.root = node;
+		this.size = size;
+		this.height = height;
 	}
 
 	/**
@@ -123,9 +340,13 @@ public class EditTree {
 	 *            character to add to the end of this tree.
 	 */
 	public void add(char ch) {
-		Wrap wrap = this.root.add(ch);
-		this.root = wrap.n;
-		this.rotationCount += wrap.rotations;
+		long start = this.startTiming();
+		int pos = this.size;
+		Wrap wrap = null;
+		if (!this.startChunk(ch)) {
+			wrap = this.root.add(ch, this.wrap());
+		}
+		this.added(wrap, pos, start);
 	}
 
 	/**
@@ -139,9 +360,83 @@ public class EditTree {
 	 *             if pos is negative or too large for this tree
 	 */
 	public void add(char ch, int pos) throws IndexOutOfBoundsException {
-		Wrap wrap = this.root.addAt(ch, pos);
-		this.root = wrap.n;
-		this.rotationCount += wrap.rotations;
+		long start = this.startTiming();
+		Wrap wrap = null;
+		if (pos != 0 || !this.startChunk(ch)) {
+			wrap = this.root.addAt(ch, pos, this.wrap());
+		}
+		this.added(wrap, pos, start);
+	}
+
+	/**
+	 * Finishes adding a character at pos: takes the new root from the wrap
+	 * the add left its results in, if it was made through one rather than by
+	 * starting a chunk, and tells the history, the index and the metrics
+	 * 
+	 * @param start
+	 *            the time the add started, if the metrics need it
+	 */
+	private void added(Wrap wrap, int pos, long start) {
+		if (wrap != null) {
+			this.root = wrap.n;
+			this.grew(wrap);
+			this.count(wrap);
+			this.modCount++;
+		}
+		if (this.history != null) {
+			this.history.inserted(pos, 1, true);
+		}
+		if (this.index != null) {
+			this.index.replaced(pos, 0, 1);
+		}
+		if (this.metrics != null) {
+			this.record(Operation.ADD, System.nanoTime() - start, pos, wrap);
+		}
+	}
+
+	/**
+	 * Adds the characters of s to the specified place in the EditTree. The
+	 * block is built balanced in O(k) time, where k is the length of s, and
+	 * joined in with a split and two concatenations, so this takes O(k + log
+	 * N) time rather than the O(k log N) of adding one character at a time.
+	 *
+	 * @param s
+	 *            the characters to add
+	 * @param pos
+	 *            the first character of s is added in this inorder position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or too large for this tree
+	 */
+	public void add(String s, int pos) throws IndexOutOfBoundsException {
+		long start = this.startTiming();
+		int rotations = this.rotationCount;
+		long allocated = this.allocatedSoFar();
+		this.splice(pos, new EditTree(s, this.chunkSize));
+		if (this.history != null && s.length() > 0) {
+			this.history.inserted(pos, s.length(), false);
+		}
+		if (this.metrics != null) {
+			this.recordSince(Operation.INSERT, start, pos, rotations, allocated);
+		}
+	}
+
+	/**
+	 * Starts an empty chunked tree off with a chunk holding ch. Once there is a
+	 * chunk, new characters go into chunks through the nodes themselves.
+	 * 
+	 * @param ch
+	 * @return true if ch was added
+	 */
+	private boolean startChunk(char ch) {
+		if (this.chunkSize > 1 && this.root instanceof Null_Node) {
+			this.root = new ChunkNode(ch, this.chunkSize);
+			this.root.epoch = this.epoch;
+			this.size = 1;
+			this.height = 0;
+			this.modCount++;
+			return true;
+		}
+		return false;
 	}
 
 	/**
@@ -153,29 +448,43 @@ public class EditTree {
 	 * @throws IndexOutOfBoundsException
 	 */
 	public char get(int pos) throws IndexOutOfBoundsException {
+		if (this.metrics != null) {
+			return this.timedGet(pos);
+		}
 		return this.root.get(pos);
 	}
 
+	/**
+	 * Gets as get does, adding it to the metrics. Kept apart so that get
+	 * itself stays small.
+	 */
+	private char timedGet(int pos) {
+		long start = System.nanoTime();
+		char ch = this.root.get(pos);
+		this.record(Operation.GET, System.nanoTime() - start, pos, this.root.depthOf(pos), 0, 0);
+		return ch;
+	}
+
 	/**
 	 * Gets the height of the tree.
 	 * 
 	 * @return the height of this tree
 	 */
 	public int height() {
-		return this.root.height();
+		return this.height;
 	}
 
 	/**
-	 * Returns the number of nodes in this tree, not counting the NULL_NODE
+	 * Returns the number of characters in this tree
 	 * 
-	 * @return the number of nodes in this tree, not counting the NULL_NODE
+	 * @return the number of characters in this tree
 	 */
 	public int size() {
-		return this.root.size();
+		return this.size;
 	}
 
 	/**
-	 * Removes a node and returns the value that used to be stored in it
+	 * Removes a character and returns it
 	 * 
 	 * @param pos
 	 *            position of character to delete from this tree
@@ -186,13 +495,288 @@ public class EditTree {
 		// When deleting a node with two children, you normally replace the
 		// node to be deleted with either its in-order successor or predecessor.
 		// We replace it with the
-		// *successor*.
-		Wrap wrap = this.root.delete(pos);
+		// *successor*. A chunk is only deleted once its last character is.
+		long start = this.startTiming();
+		Wrap wrap = this.root.delete(pos, this.wrap());
+		char ch = this.deleted(wrap, pos, start);
+		if (wrap.shrunk != null) {
+			this.mergeSmall(pos - wrap.shrunkAt, wrap.shrunk);
+		}
+		return ch;
+	}
+
+	/**
+	 * Finishes deleting the character at pos: takes the new root from the
+	 * wrap the delete left its results in and tells the history, the index
+	 * and the metrics
+	 * 
+	 * @param start
+	 *            the time the delete started, if the metrics need it
+	 * @return the character deleted
+	 */
+	private char deleted(Wrap wrap, int pos, long start) {
 		this.root = wrap.n;
-		this.rotationCount += wrap.rotations;
+		this.size--;
+		if (wrap.change == Change.DEL) {
+			this.height--;
+		}
+		this.count(wrap);
+		this.modCount++;
+		if (this.history != null) {
+			this.history.deleted(pos, wrap.delVal);
+		}
+		if (this.index != null) {
+			this.index.replaced(pos, 1, 0);
+		}
+		if (this.metrics != null) {
+			this.record(Operation.DELETE, System.nanoTime() - start, pos, wrap);
+		}
 		return wrap.delVal;
 	}
 
+	/**
+	 * Merges a chunk that is less than half full into whichever neighbouring
+	 * chunk has room for its characters, the emptier one if both do, so that
+	 * deletes do not leave the tree full of small chunks. Nothing is merged
+	 * if neither has room, and the next delete from the chunk tries again.
+	 * 
+	 * @param start
+	 *            the position of the chunk's first character
+	 * @param small
+	 *            the chunk
+	 */
+	private void mergeSmall(int start, ChunkNode small) {
+		ChunkNode prev = this.chunkAt(start - 1);
+		ChunkNode next = this.chunkAt(start + small.count);
+		boolean intoPrev = prev != null && prev.count + small.count <= prev.capacity();
+		boolean intoNext = next != null && next.count + small.count <= next.capacity();
+		if (intoPrev && intoNext) {
+			intoPrev = prev.count <= next.count;
+		}
+		if (intoPrev || intoNext) {
+			this.merge(start, !intoPrev);
+		}
+	}
+
+	/**
+	 * Merges the chunks on either side of position pos into one if either is
+	 * less than half full and the smaller fits in the other, so that joining
+	 * trees does not leave small chunks at the seam
+	 */
+	private void mergeAcross(int pos) {
+		if (this.chunkSize <= 1) {
+			return;
+		}
+		ChunkNode before = this.chunkAt(pos - 1);
+		ChunkNode after = this.chunkAt(pos);
+		if (before == null || after == null || before == after || !(before.isSmall() || after.isSmall())) {
+			return;
+		}
+		int count = before.count + after.count;
+		if (after.count <= before.count) {
+			if (count <= before.capacity()) {
+				this.merge(pos, false);
+			}
+		} else if (count <= after.capacity()) {
+			this.merge(pos - before.count, true);
+		}
+	}
+
+	/**
+	 * @return the chunk holding position pos, or null if pos is outside this
+	 *         tree or in a node that is not a chunk
+	 */
+	private ChunkNode chunkAt(int pos) {
+		if (pos < 0 || pos >= this.size) {
+			return null;
+		}
+		Node n = this.root.nodeAt(pos);
+		return (n instanceof ChunkNode) ? (ChunkNode) n : null;
+	}
+
+	/**
+	 * Takes the chunk starting at start out of the tree and gives its
+	 * characters to the chunk after it, or to the one before it, which must
+	 * have room for them. The text is the same afterwards, so the history and
+	 * the index are left alone.
+	 */
+	private void merge(int start, boolean intoNext) {
+		Wrap wrap = this.root.removeAt(start, this.wrap());
+		this.root = wrap.n;
+		if (wrap.change == Change.DEL) {
+			this.height--;
+		}
+		this.count(wrap);
+		ChunkNode removed = (ChunkNode) wrap.removed;
+		wrap = this.root.absorbAt(intoNext ? start : start - 1, removed, intoNext, this.wrap());
+		this.root = wrap.n;
+		this.count(wrap);
+		this.modCount++;
+	}
+
+	/**
+	 * Removes length characters starting at pos and returns them. The range is
+	 * cut out with two splits and the ends are concatenated back together, so
+	 * this takes O(length + log N) time.
+	 *
+	 * @param pos
+	 *            position of the first character to delete
+	 * @param length
+	 *            number of characters to delete
+	 * @return the characters that are deleted
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length are between 0 and the size of
+	 *             this tree and length is not negative
+	 */
+	public String delete(int pos, int length) throws IndexOutOfBoundsException {
+		return this.replace(pos, length, "");
+	}
+
+	/**
+	 * Replaces the length characters starting at pos with s and returns the
+	 * characters replaced. This takes O(length + k + log N) time, where k is
+	 * the length of s.
+	 *
+	 * @param pos
+	 *            position of the first character to replace
+	 * @param length
+	 *            number of characters to replace
+	 * @param s
+	 *            the characters to put in their place
+	 * @return the characters that are replaced
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length are between 0 and the size of
+	 *             this tree and length is not negative
+	 */
+	public String replace(int pos, int length, String s) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		long start = this.startTiming();
+		int rotations = this.rotationCount;
+		long allocated = this.allocatedSoFar();
+		EditTree removed = this.cut(pos, length);
+		this.splice(pos, new EditTree(s, this.chunkSize));
+		String text = removed.toString();
+		if (this.history != null && (length > 0 || s.length() > 0)) {
+			this.history.replaced(pos, s.length(), removed);
+		}
+		if (this.metrics != null) {
+			this.recordSince(Operation.REPLACE, start, pos, rotations, allocated);
+		}
+		return text;
+	}
+
+	/**
+	 * Makes a batch of edits in one pass down the tree. The edits' positions
+	 * are all in this tree as it is before the batch, so the caller never
+	 * shifts one for another. Subtrees no edit reaches are left alone, and
+	 * each node on the paths to the edits is joined back together with its
+	 * edited subtrees once, on the way back up, so that the whole batch
+	 * rebalances each path it touches once instead of once per edit. Undo
+	 * takes the whole batch back at once.
+	 * 
+	 * @param edits
+	 *            edits whose ranges don't overlap, in any order. Inserts at
+	 *            the same position go in in the order given, and before an
+	 *            edit replacing the characters from there.
+	 * @throws IllegalArgumentException
+	 *             if two edits' ranges overlap
+	 * @throws IndexOutOfBoundsException
+	 *             if an edit's range is not within this tree
+	 */
+	public void applyBatch(List<Edit> edits) throws IllegalArgumentException, IndexOutOfBoundsException {
+		Edit[] sorted = edits.toArray(new Edit[edits.size()]);
+		// sorting objects is stable, so inserts at one position keep their
+		// order, and they go before a range starting there
+		Arrays.sort(sorted, Comparator.comparingInt(Edit::getPosition).thenComparing(e -> e.getLength() > 0));
+		int end = 0;
+		for (Edit e : sorted) {
+			if (e.getPosition() < 0) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (e.getPosition() < end) {
+				throw new IllegalArgumentException();
+			}
+			end = e.getPosition() + e.getLength();
+		}
+		if (end > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (sorted.length == 0) {
+			return;
+		}
+		long start = this.startTiming();
+		int rotations = this.rotationCount;
+		long allocated = this.allocatedSoFar();
+		int delta = Node.delta(sorted, 0, sorted.length);
+		int first = sorted[0].getPosition();
+		EditTree replaced = null;
+		if (this.history != null) {
+			// the characters from the first edit to the end of the last, cut
+			// out of a snapshot so that the history can put them back
+			EditTree copy = this.snapshot();
+			copy.splitOff(end);
+			replaced = copy.splitOff(first);
+		}
+		Wrap wrap = Node.batch(this.root, this.height, 0, sorted, 0, sorted.length, this.chunkSize, this.wrap());
+		this.root = wrap.n;
+		this.height = wrap.height;
+		this.size += delta;
+		this.count(wrap);
+		this.modCount++;
+		// the seams at either end of each edit, where they now are
+		int shift = 0;
+		for (Edit e : sorted) {
+			int at = e.getPosition() + shift;
+			this.mergeAcross(at);
+			this.mergeAcross(at + e.getText().length());
+			shift += e.getText().length() - e.getLength();
+		}
+		if (this.index != null) {
+			this.index.replaced(first, end - first, end - first + delta);
+		}
+		if (replaced != null && (end > first || delta > 0)) {
+			this.history.replaced(first, end - first + delta, replaced);
+		}
+		if (this.metrics != null) {
+			this.recordSince(Operation.BATCH, start, first, rotations, allocated);
+		}
+	}
+
+	/**
+	 * Takes the length characters starting at pos out of this tree
+	 *
+	 * @return a tree of the characters taken out
+	 */
+	private EditTree cut(int pos, int length) {
+		EditTree removed = this.splitOff(pos);
+		EditTree rest = removed.splitOff(length);
+		// the second split was made through removed's wrap
+		this.count(removed.wrap);
+		this.append(rest);
+		this.mergeAcross(pos);
+		if (this.index != null) {
+			this.index.replaced(pos, length, 0);
+		}
+		return removed;
+	}
+
+	/**
+	 * Puts the characters of inserted into this tree at pos, emptying inserted
+	 */
+	private void splice(int pos, EditTree inserted) {
+		int length = inserted.size;
+		EditTree rest = this.splitOff(pos);
+		this.append(inserted);
+		this.append(rest);
+		this.mergeAcross(pos);
+		this.mergeAcross(pos + length);
+		if (this.index != null) {
+			this.index.replaced(pos, 0, length);
+		}
+	}
+
 	/**
 	 * Retrieves a string from the characters in the nodes at the specified
 	 * locations. This method operates in O(length*log N), where N is the size
@@ -208,9 +792,15 @@ public class EditTree {
 	 *             within this tree.
 	 */
 	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		long start = this.startTiming();
 		StringBuilder sb = new StringBuilder();
 		this.root.get(sb, pos, pos + length - 1);
-		return sb.toString();
+		String text = sb.toString();
+		if (this.metrics != null) {
+			int depth = (length > 0) ? this.root.depthOf(pos) : -1;
+			this.record(Operation.GET, System.nanoTime() - start, pos, depth, 0, 0);
+		}
+		return text;
 	}
 
 	/**
@@ -227,43 +817,1531 @@ public class EditTree {
 		if (other == this) {
 			throw new IllegalArgumentException();
 		}
+		long start = this.startTiming();
+		int pos = this.size;
+		if (this.history != null && !(other.root instanceof Null_Node)) {
+			this.history.inserted(this.size(), other.size(), false);
+		}
+		if (this.index != null) {
+			this.index.replaced(pos, 0, other.size);
+		}
+		if (other.index != null) {
+			other.index.replaced(0, other.size, 0);
+		}
+		boolean joined = !(this.root instanceof Null_Node || other.root instanceof Null_Node);
+		this.append(other);
+		if (this.metrics != null) {
+			if (joined) {
+				// at the depth the two trees were joined at
+				this.record(Operation.CONCATENATE, System.nanoTime() - start, pos, this.wrap);
+			} else {
+				this.record(Operation.CONCATENATE, System.nanoTime() - start, pos, -1, 0, 0);
+			}
+		}
+		this.mergeAcross(pos);
+	}
+
+	/**
+	 * Concatenates without recording it in the history or the metrics
+	 */
+	void append(EditTree other) {
+		if (other.root instanceof Null_Node) {
+			return;
+		}
+		this.modCount++;
+		other.modCount++;
+		if (other.epoch != 0) {
+			// other's nodes may be shared with a snapshot or with this tree
+			this.epoch = EditTree.lastEpoch.incrementAndGet();
+		}
 		if (this.root instanceof Null_Node) {
 			this.root = other.root;
-			other.root = Node.getNull();
-			return;
+			this.size = other.size;
+			this.height = other.height;
+		} else {
+			Wrap p = this.root.concatenate(this.height, this.size, null, other.root, other.height, this.wrap());
+			this.count(p);
+			this.root = p.n;
+			this.size += other.size;
+			this.height = p.height;
 		}
-		Wrap p = this.root.concatenate(other.root);
 		// makes other empty
 		other.root = Node.getNull();
-		this.rotationCount += p.rotations;
-		this.root = p.n;
+		other.size = 0;
+		other.height = -1;
 	}
 
 	/**
-	 * Finds the index of a specified string in this EditorTree
-	 * 
-	 * @param s
-	 *            the string to look for
-	 * @return the position in this tree of the first occurrence of s; -1 if s
-	 *         does not occur
+	 * Cuts this tree in two (in time proportional to the log of its size),
+	 * the inverse of concatenate. This tree keeps the characters before pos
+	 * and the rest are moved to the returned tree.
+	 *
+	 * @param pos
+	 *            position of the first character of the returned tree
+	 * @return a tree holding the characters from pos on
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
 	 */
-	public int find(String s) {
-		return this.toString().indexOf(s);
+	public EditTree split(int pos) throws IndexOutOfBoundsException {
+		EditTree other = this.splitOff(pos);
+		if (this.index != null) {
+			this.index.replaced(pos, other.size, 0);
+		}
+		if (this.history != null && !(other.root instanceof Null_Node)) {
+			// the caller gets other, so the history keeps a snapshot of it
+			this.history.replaced(pos, 0, other.snapshot());
+		}
+		return other;
 	}
 
 	/**
-	 * Returns the position in this tree of the first occurrence of s that does
-	 * not occur before position pos
+	 * Splits without recording it in the history
+	 */
+	private EditTree splitOff(int pos) {
+		Split s = this.root.split(pos, this.height, this.wrap());
+		EditTree other = new EditTree(s.right, this.size - pos, s.rightHeight);
+		this.root = s.left;
+		this.size = pos;
+		this.height = s.leftHeight;
+		this.count(s.wrap);
+		this.modCount++;
+		other.chunkSize = this.chunkSize;
+		if (this.epoch != 0) {
+			// other may hold nodes shared with a snapshot of this tree
+			other.epoch = EditTree.lastEpoch.incrementAndGet();
+		}
+		return other;
+	}
+
+	/**
+	 * Adds the rotations of an edit that left its results in wrap to the
+	 * count, and to the metrics if they are kept
+	 */
+	private void count(Wrap wrap) {
+		this.rotationCount += wrap.rotations;
+		if (this.metrics != null) {
+			this.metrics.tally(wrap);
+		}
+	}
+
+	/**
+	 * @return the time an operation starts, if the metrics need it
+	 */
+	private long startTiming() {
+		return (this.metrics == null) ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * @return the nodes the metrics have counted so far, or 0 if none are
+	 *         kept
+	 */
+	private long allocatedSoFar() {
+		return (this.metrics == null) ? 0 : this.metrics.nodesAllocated();
+	}
+
+	/**
+	 * Adds an operation to the metrics
 	 * 
-	 * @param s
-	 *            the string to search for
+	 * @param nanos
+	 *            how long it took. Arguments are evaluated in order, so a
+	 *            depth found in the argument after this one is not timed.
 	 * @param pos
-	 *            the position in the tree to begin the search
-	 * @return the position in this tree of the first occurrence of s that does
-	 *         not occur before position pos; -1 if s does not occur
+	 *            the position it worked at
+	 * @param depth
+	 *            the depth of the node it worked on, or -1
+	 * @param rotations
+	 *            the rotations it did
+	 * @param allocated
+	 *            the nodes it made
 	 */
-	public int find(String s, int pos) {
-		return this.toString().indexOf(s, pos);
+	private void record(Operation op, long nanos, int pos, int depth, int rotations, int allocated) {
+		this.metrics.record(op, nanos, pos, this.size, depth, rotations, allocated);
+	}
+
+	/**
+	 * Adds an edit that left its results in wrap to the metrics, at the depth
+	 * its path went down to, or at the root if it used no wrap
+	 */
+	private void record(Operation op, long nanos, int pos, Wrap wrap) {
+		if (wrap == null) {
+			this.record(op, nanos, pos, 0, 0, 0);
+		} else {
+			this.record(op, nanos, pos, wrap.reached, wrap.rotations, wrap.allocated);
+		}
+	}
+
+	/**
+	 * Adds an operation made of several edits to the metrics, with the
+	 * rotations and nodes they came to since the counts given. It has no one
+	 * node, so no depth.
+	 */
+	private void recordSince(Operation op, long start, int pos, int rotations, long allocated) {
+		this.record(op, System.nanoTime() - start, pos, -1, this.rotationCount - rotations,
+				(int) (this.metrics.nodesAllocated() - allocated));
+	}
+
+	/**
+	 * Counts a character added by an edit that left its results in wrap
+	 */
+	private void grew(Wrap wrap) {
+		this.size++;
+		if (wrap.change == Change.INS) {
+			this.height++;
+		}
+	}
+
+	/**
+	 * @return this tree's wrap, cleared for a new edit
+	 */
+	private Wrap wrap() {
+		if (this.wrap == null) {
+			this.wrap = new Wrap(this.epoch);
+		}
+		return this.wrap.reset(this.epoch);
+	}
+
+	/**
+	 * Takes a snapshot of this tree in O(1) time. The snapshot shares all its
+	 * nodes with this tree, and from then on an edit to either one copies the
+	 * O(log N) nodes on the path it changes instead of changing shared nodes,
+	 * so neither tree ever sees the other's edits. A snapshot that is never
+	 * edited is immutable and safe to read from other threads.
+	 *
+	 * @return a tree with the same contents as this one
+	 */
+	public EditTree snapshot() {
+		EditTree copy = new EditTree(this.root, this.size, this.height);
+		copy.chunkSize = this.chunkSize;
+		copy.epoch = EditTree.lastEpoch.incrementAndGet();
+		this.epoch = EditTree.lastEpoch.incrementAndGet();
+		return copy;
+	}
+
+	/**
+	 * Makes a tree sharing all its nodes with this one, as snapshot does,
+	 * without giving this tree a new epoch. Only for a tree that is never
+	 * edited again, which can then be shared between threads while copies are
+	 * made of it.
+	 *
+	 * @return a tree with the same contents as this one
+	 */
+	EditTree share() {
+		EditTree copy = new EditTree(this.root, this.size, this.height);
+		copy.chunkSize = this.chunkSize;
+		copy.epoch = EditTree.lastEpoch.incrementAndGet();
+		return copy;
+	}
+
+	/**
+	 * Returns the number of lines in this tree. Lines are separated by '\n',
+	 * so this is one more than the number of newlines, and takes O(1) time.
+	 * 
+	 * @return the number of lines
+	 */
+	public int lineCount() {
+		return this.root.lines + 1;
+	}
+
+	/**
+	 * Finds where a line starts in O(log N) time, from the newline count each
+	 * node keeps of its subtree.
+	 * 
+	 * @param line
+	 *            the line number, counting from 0
+	 * @return the position of the line's first character
+	 * @throws IndexOutOfBoundsException
+	 *             unless line is between 0 and lineCount() - 1
+	 */
+	public int lineStart(int line) throws IndexOutOfBoundsException {
+		if (line < 0 || line > this.root.lines) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (line == 0) {
+			return 0;
+		}
+		return this.root.afterNewline(line);
+	}
+
+	/**
+	 * Finds which line a position is on in O(log N) time. A newline is on the
+	 * line it ends. Its column is pos - lineStart(lineOf(pos)).
+	 * 
+	 * @param pos
+	 *            a position from 0 to the size of this tree
+	 * @return the number of the line holding that position, counting from 0
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	public int lineOf(int pos) throws IndexOutOfBoundsException {
+		return this.root.linesBefore(pos);
+	}
+
+	/**
+	 * Returns the characters of a line, without its newline, in O(k + log N)
+	 * time, where k is the length of the line.
+	 * 
+	 * @param line
+	 *            the line number, counting from 0
+	 * @return the line's characters
+	 * @throws IndexOutOfBoundsException
+	 *             unless line is between 0 and lineCount() - 1
+	 */
+	public String getLine(int line) throws IndexOutOfBoundsException {
+		int start = this.lineStart(line);
+		int end = (line == this.root.lines) ? this.size() : this.lineStart(line + 1) - 1;
+		if (end == start) {
+			return "";
+		}
+		return this.get(start, end - start);
+	}
+
+	/**
+	 * Returns the number of code points in this tree: its characters, less the
+	 * low surrogates that end a pair. The count is kept with the hashes, so
+	 * the first call after the tree is built takes O(N) time, as the first
+	 * hash does, and later ones O(log N) for each edit made since.
+	 * 
+	 * A low surrogate without a high surrogate before it, which only the
+	 * char-indexed methods can leave, is counted as part of the code point
+	 * before it.
+	 * 
+	 * @return the number of code points
+	 */
+	public int codePointCount() {
+		this.root = this.root.refresh(this.epoch);
+		return this.size - this.root.sums.lows;
+	}
+
+	/**
+	 * Converts a character position to a code point index in O(log N) time.
+	 * 
+	 * @param pos
+	 *            a position from 0 to the size of this tree
+	 * @return the number of code points that start before pos, which is the
+	 *         index of the code point at pos unless pos splits a pair
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	public int codePointIndex(int pos) throws IndexOutOfBoundsException {
+		this.root = this.root.refresh(this.epoch);
+		return pos - this.root.lowsBefore(pos);
+	}
+
+	/**
+	 * Converts a code point index to a character position in O(log N) time.
+	 * 
+	 * @param index
+	 *            a code point index from 0 to codePointCount()
+	 * @return the position of that code point's first character, or the size
+	 *         of this tree if index is codePointCount()
+	 * @throws IndexOutOfBoundsException
+	 *             if index is negative or greater than codePointCount()
+	 */
+	public int charIndex(int index) throws IndexOutOfBoundsException {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.root = this.root.refresh(this.epoch);
+		return this.root.codePointOffset(index);
+	}
+
+	/**
+	 * Gets a code point by its index, so that an emoji or other character
+	 * outside the Basic Multilingual Plane comes back whole.
+	 * 
+	 * @param index
+	 *            a code point index from 0 to codePointCount() - 1
+	 * @return the code point
+	 * @throws IndexOutOfBoundsException
+	 *             unless index is between 0 and codePointCount() - 1
+	 */
+	public int getCodePoint(int index) throws IndexOutOfBoundsException {
+		int pos = this.charIndex(index);
+		int end = this.charIndex(index + 1);
+		if (end == pos + 1) {
+			return this.get(pos);
+		}
+		return this.get(pos, end - pos).codePointAt(0);
+	}
+
+	/**
+	 * Adds a code point before the one at the given index, or at the end if
+	 * index is codePointCount(). One outside the Basic Multilingual Plane is
+	 * added as a surrogate pair in one edit.
+	 * 
+	 * @param codePoint
+	 * @param index
+	 *            a code point index from 0 to codePointCount()
+	 * @throws IllegalArgumentException
+	 *             if codePoint is not a valid code point, or is a low
+	 *             surrogate, which would join the code point before it
+	 * @throws IndexOutOfBoundsException
+	 *             unless index is between 0 and codePointCount()
+	 */
+	public void addCodePoint(int codePoint, int index)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		if (!Character.isValidCodePoint(codePoint)
+				|| (codePoint >= Character.MIN_LOW_SURROGATE && codePoint <= Character.MAX_LOW_SURROGATE)) {
+			throw new IllegalArgumentException();
+		}
+		int pos = this.charIndex(index);
+		if (Character.isBmpCodePoint(codePoint)) {
+			this.add((char) codePoint, pos);
+		} else {
+			this.add(new String(Character.toChars(codePoint)), pos);
+		}
+	}
+
+	/**
+	 * Removes a code point, both halves of a surrogate pair together, and
+	 * returns it.
+	 * 
+	 * @param index
+	 *            a code point index from 0 to codePointCount() - 1
+	 * @return the code point that is deleted
+	 * @throws IndexOutOfBoundsException
+	 *             unless index is between 0 and codePointCount() - 1
+	 */
+	public int deleteCodePoint(int index) throws IndexOutOfBoundsException {
+		int pos = this.charIndex(index);
+		int end = this.charIndex(index + 1);
+		if (end == pos + 1) {
+			return this.delete(pos);
+		}
+		return this.delete(pos, end - pos).codePointAt(0);
+	}
+
+	/**
+	 * Starts keeping the edits made to this tree from now on so they can be
+	 * undone, forgetting any kept before. Characters typed or deleted one
+	 * after another at the same spot are undone together. Undoing or redoing
+	 * any edit takes O(log N) time, because the history keeps replaced text
+	 * as trees and swaps them in and out with splits and concatenations.
+	 * 
+	 * @param maxEntries
+	 *            the most edits to keep; the oldest are forgotten first. 0
+	 *            stops keeping edits.
+	 * @param maxChars
+	 *            the most deleted or replaced characters to keep over all the
+	 *            edits, which bounds the memory the history holds
+	 */
+	public void keepHistory(int maxEntries, long maxChars) {
+		if (maxEntries <= 0) {
+			this.history = null;
+		} else {
+			this.history = new EditHistory(maxEntries, maxChars, this.chunkSize);
+		}
+	}
+
+	/**
+	 * Starts keeping an index of the n-grams of this tree's characters, so
+	 * that find reads only the parts of the tree the string sought may be in.
+	 * The tree is cut into blocks of a few thousand characters, each with a
+	 * Bloom filter of the n-grams starting in it, about a kilobyte, and find
+	 * skips the blocks whose filters lack the string's n-grams. Edits only
+	 * mark the filters of the blocks they touch out of date, in O(log N)
+	 * time, and the next find builds those again, so the first find after
+	 * this reads the whole tree and later ones only what has been edited
+	 * since and the blocks that may hold a match. Strings shorter than the
+	 * n-grams are found by reading the tree, as they are without an index.
+	 * 
+	 * @param gramLength
+	 *            the length of the n-grams, from 1 to 16; 3 suits most text.
+	 *            0 stops keeping the index.
+	 * @throws IllegalArgumentException
+	 *             if gramLength is negative or more than 16
+	 */
+	public void keepIndex(int gramLength) throws IllegalArgumentException {
+		if (gramLength < 0 || gramLength > GramIndex.MAX_GRAM) {
+			throw new IllegalArgumentException();
+		}
+		this.index = (gramLength == 0) ? null : new GramIndex(gramLength, this.size);
+	}
+
+	/**
+	 * Starts keeping metrics of this tree's operations: counts and latency
+	 * histograms of adds, deletes, gets, finds, concatenations, string inserts,
+	 * range replaces, batches and loads, single and double rotations, nodes
+	 * allocated and the depths operations work at.
+	 * Any metrics kept before are dropped. Until this is called, operations
+	 * only check that there are no metrics to keep.
+	 * 
+	 * @param flightEvents
+	 *            whether each operation is also emitted as a JDK Flight
+	 *            Recorder event, which recordings hold if they enable
+	 *            editortrees.Edit
+	 * @return the metrics, which go on counting as this tree is used
+	 */
+	public EditMetrics collectMetrics(boolean flightEvents) {
+		this.metrics = new EditMetrics(flightEvents);
+		return this.metrics;
+	}
+
+	/**
+	 * @return the metrics being kept, or null if none are
+	 */
+	public EditMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Stops keeping metrics
+	 */
+	public void stopMetrics() {
+		this.metrics = null;
+	}
+
+	/**
+	 * Keeps this tree's metrics in metrics, which may already hold counts
+	 */
+	void useMetrics(EditMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Counts reading this tree in, which started at the given time, when the
+	 * metrics had counted the given number of nodes, in the metrics if it
+	 * keeps any
+	 */
+	void loaded(long start, long allocated) {
+		if (this.metrics != null) {
+			// the tree was empty when reading started, so its rotations are
+			// all the read's
+			this.recordSince(Operation.LOAD, start, 0, 0, allocated);
+		}
+	}
+
+	/**
+	 * Undoes the last edit that has not been undone
+	 * 
+	 * @return false if there was nothing to undo
+	 */
+	public boolean undo() {
+		if (this.history == null) {
+			return false;
+		}
+		Entry e = this.history.takeUndo();
+		if (e == null) {
+			return false;
+		}
+		this.swap(e);
+		this.history.putRedo(e);
+		return true;
+	}
+
+	/**
+	 * Redoes the last edit undone, if nothing has been edited since
+	 * 
+	 * @return false if there was nothing to redo
+	 */
+	public boolean redo() {
+		if (this.history == null) {
+			return false;
+		}
+		Entry e = this.history.takeRedo();
+		if (e == null) {
+			return false;
+		}
+		this.swap(e);
+		this.history.putUndo(e);
+		return true;
+	}
+
+	/**
+	 * Puts back the characters an entry's range replaced, keeping the range's
+	 * characters in the entry instead. Doing this twice restores both.
+	 */
+	private void swap(Entry e) {
+		EditTree current = this.cut(e.pos, e.length);
+		int length = e.other.size();
+		this.splice(e.pos, e.other);
+		e.other = current;
+		e.length = length;
+	}
+
+	/**
+	 * Writes the characters of this tree to out in order, copying them out of
+	 * the nodes a block at a time instead of building the whole string, so it
+	 * takes O(N) time and constant extra memory.
+	 * 
+	 * @param out
+	 *            where to write; it is neither flushed nor closed
+	 * @throws IOException
+	 *             if out throws one
+	 */
+	public void writeTo(Writer out) throws IOException {
+		TreeIO.write(this.root, out);
+	}
+
+	/**
+	 * Encodes the characters of this tree and writes them to out in order. The
+	 * characters are encoded a block at a time into one buffer, which is
+	 * written whenever it fills, so it takes O(N) time and constant extra
+	 * memory. Characters that cannot be encoded are replaced, as
+	 * String.getBytes does.
+	 * 
+	 * @param out
+	 *            where to write; it is not closed
+	 * @param charset
+	 *            the encoding to write in
+	 * @throws IOException
+	 *             if out throws one
+	 */
+	public void writeTo(WritableByteChannel out, Charset charset) throws IOException {
+		TreeIO.write(this.root, out, charset);
+	}
+
+	/**
+	 * Returns an iterator over the characters of this tree from pos on. It
+	 * goes down to pos once in O(log N) time and then gives each character
+	 * in amortized O(1) time, without recursion or allocation. It must not be
+	 * used after this tree changes.
+	 * 
+	 * @param pos
+	 *            position of the first character to give
+	 * @return an iterator whose nextChar() gives the characters in order
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	public CharIterator iterator(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new CharIterator(this.root, pos);
+	}
+
+	/**
+	 * Returns a view of this tree's characters as a CharSequence, so the text
+	 * can go to regular expressions, writers and the like without being copied.
+	 * The view always shows the current characters. It keeps an iterator
+	 * between calls, so reading charAt at increasing positions takes amortized
+	 * O(1) time per character; any other charAt takes O(log N) time.
+	 * 
+	 * @return a CharSequence of this tree's characters
+	 */
+	public CharSequence asCharSequence() {
+		return new View();
+	}
+
+	/**
+	 * The characters of this tree as a CharSequence. It reads them a window at
+	 * a time, so reading in order, or going back a little way, as a regex does
+	 * when it backtracks, mostly reads from an array.
+	 */
+	private class View implements CharSequence {
+
+		private CharIterator it;
+		// the characters from position start up to end, and the end of the
+		// tree; it gives the character at end next
+		private char[] window;
+		private int start;
+		private int end;
+		private int length;
+		// the modCount of the tree when it and length were found
+		private int seen;
+
+		public View() {
+			this.it = null;
+			this.window = new char[VIEW_WINDOW];
+			this.seen = EditTree.this.modCount;
+			this.length = EditTree.this.size();
+		}
+
+		@Override
+		public int length() {
+			this.sync();
+			return this.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			this.sync();
+			if (index < 0 || index >= this.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (index < this.start || index >= this.end) {
+				this.fill(index);
+			}
+			return this.window[index - this.start];
+		}
+
+		/**
+		 * Reads the window in around index. Going back starts it half a window
+		 * before index, so that the characters before index are at hand too.
+		 */
+		private void fill(int index) {
+			int from = (index < this.start) ? Math.max(index - VIEW_WINDOW / 2, 0) : index;
+			if (this.it == null) {
+				this.it = new CharIterator(EditTree.this.root, from);
+			} else if (from != this.end) {
+				this.it.seek(EditTree.this.root, from);
+			}
+			this.start = from;
+			this.end = from + Math.max(this.it.read(this.window, 0, VIEW_WINDOW), 0);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			this.sync();
+			if (start < 0 || end > this.length || start > end) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (start == end) {
+				return "";
+			}
+			return EditTree.this.get(start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return EditTree.this.toString();
+		}
+
+		/**
+		 * Forgets the iterator and length if the tree has changed
+		 */
+		private void sync() {
+			if (this.seen != EditTree.this.modCount) {
+				this.it = null;
+				this.start = 0;
+				this.end = 0;
+				this.seen = EditTree.this.modCount;
+				this.length = EditTree.this.size();
+			}
+		}
+	}
+
+	/**
+	 * Returns a cursor at pos for reading and editing near one place
+	 * 
+	 * @param pos
+	 *            the cursor's position, from 0 to the size of this tree
+	 * @return a cursor at that position
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is negative or greater than the size of this tree
+	 */
+	public Cursor cursor(int pos) throws IndexOutOfBoundsException {
+		Cursor c = new Cursor();
+		c.moveTo(pos);
+		return c;
+	}
+
+	/**
+	 * A position in this tree that keeps its path from the root down to the
+	 * node it is at. Moving it only climbs as far as the lowest node whose
+	 * subtree holds the new position, so reading or moving near the cursor
+	 * does not start over from the root. In a chunked tree, typing or deleting
+	 * inside a chunk that has room is done right in the chunk, and only the
+	 * ranks and hashes on the kept path are fixed up, with no search or
+	 * rotation, unless a delete leaves the chunk less than half full and it is
+	 * merged with a neighbour. Other edits go down the tree from the deepest
+	 * node on the path that an edit from the root would pass through, and the
+	 * cursor keeps its path down to the parent of the highest node the edit
+	 * rotated or took out, which is usually most of it. It finds its path
+	 * from the root again only after a rotation at the root or an edit made
+	 * to the tree elsewhere.
+	 *
+	 * So only reading and moving cost O(log d) for a move of d characters.
+	 * Every edit changes the rank of each node above it whose left subtree
+	 * holds it, so even one made in a chunk takes time proportional to the
+	 * depth of the chunk; it only saves the search and the rotations. In a
+	 * tree of one character per node, as new EditTree(String) builds, there
+	 * are no chunks, so every insert and delete adds or takes out a node and
+	 * climbs back up as far as it rebalances, still O(log N); what the
+	 * cursor saves there is the search down to it.
+	 */
+	public class Cursor {
+
+		private int pos;
+		// the path from the root, the node at each level and the range of
+		// positions its subtree holds
+		private Node[] nodes;
+		private int[] starts;
+		private int[] ends;
+		private int depth;
+		// index of the position in the node at the end of the path
+		private int offset;
+		// the modCount of the tree the path was found for
+		private int seen;
+		// how many times the path has been found again from the root
+		int restarts;
+
+		public Cursor() {
+			this.pos = 0;
+			this.nodes = new Node[0];
+			this.starts = new int[0];
+			this.ends = new int[0];
+			this.depth = 0;
+			this.seen = EditTree.this.modCount - 1;
+		}
+
+		/**
+		 * @return the cursor's position, from 0 to the size of the tree
+		 */
+		public int position() {
+			this.sync();
+			return this.pos;
+		}
+
+		/**
+		 * @param pos
+		 *            the cursor's new position
+		 * @throws IndexOutOfBoundsException
+		 *             if pos is negative or greater than the size of the tree
+		 */
+		public void moveTo(int pos) throws IndexOutOfBoundsException {
+			this.sync();
+			if (pos < 0 || pos > this.ends[0]) {
+				throw new IndexOutOfBoundsException();
+			}
+			this.pos = pos;
+		}
+
+		/**
+		 * @param distance
+		 *            how far to move forward, or back if negative
+		 * @throws IndexOutOfBoundsException
+		 *             if that is before the start or after the end of the tree
+		 */
+		public void moveBy(int distance) throws IndexOutOfBoundsException {
+			this.moveTo(this.position() + distance);
+		}
+
+		/**
+		 * @return true if there is a character after the cursor
+		 */
+		public boolean hasNext() {
+			this.sync();
+			return this.pos < this.ends[0];
+		}
+
+		/**
+		 * Moves the cursor forward over one character
+		 * 
+		 * @return the character moved over
+		 * @throws NoSuchElementException
+		 *             if the cursor is at the end of the tree
+		 */
+		public char next() throws NoSuchElementException {
+			if (!this.seek(this.pos)) {
+				throw new NoSuchElementException();
+			}
+			this.pos++;
+			return this.nodes[this.depth - 1].charAt(this.offset);
+		}
+
+		/**
+		 * Moves the cursor back over one character
+		 * 
+		 * @return the character moved over
+		 * @throws NoSuchElementException
+		 *             if the cursor is at the start of the tree
+		 */
+		public char previous() throws NoSuchElementException {
+			this.sync();
+			if (this.pos == 0) {
+				throw new NoSuchElementException();
+			}
+			this.pos--;
+			this.seek(this.pos);
+			return this.nodes[this.depth - 1].charAt(this.offset);
+		}
+
+		/**
+		 * Adds ch at the cursor and moves the cursor past it, as typing does
+		 * 
+		 * @param ch
+		 *            character to add
+		 */
+		public void insert(char ch) {
+			long start = EditTree.this.startTiming();
+			this.sync();
+			// the character goes after the one before the cursor, so typing
+			// keeps filling the same chunk
+			if (this.pos > 0 && this.seek(this.pos - 1) && this.nodes[this.depth - 1] instanceof ChunkNode
+					&& ((ChunkNode) this.nodes[this.depth - 1]).hasRoom() && this.ownsPath()) {
+				((ChunkNode) this.nodes[this.depth - 1]).put(ch, this.offset + 1);
+				this.resize(1, (ch == '\n') ? 1 : 0);
+				if (EditTree.this.history != null) {
+					EditTree.this.history.inserted(this.pos, 1, true);
+				}
+				if (EditTree.this.index != null) {
+					EditTree.this.index.replaced(this.pos, 0, 1);
+				}
+				if (EditTree.this.metrics != null) {
+					this.record(Operation.ADD, start);
+				}
+			} else if (EditTree.this.size > 0 && this.ownsPath()) {
+				int k = this.fork(this.pos);
+				Wrap w = this.along(k);
+				this.nodes[k].addAt(ch, this.pos - this.starts[k], w);
+				w.finish(1, (ch == '\n') ? 1 : 0);
+				EditTree.this.added(w, this.pos, start);
+				this.kept(k);
+			} else {
+				EditTree.this.add(ch, this.pos);
+			}
+			this.pos++;
+		}
+
+		/**
+		 * Removes the character after the cursor, as the delete key does
+		 * 
+		 * @return the character that is deleted
+		 * @throws IndexOutOfBoundsException
+		 *             if the cursor is at the end of the tree
+		 */
+		public char delete() throws IndexOutOfBoundsException {
+			long start = EditTree.this.startTiming();
+			if (!this.seek(this.pos) || !this.ownsPath()) {
+				return EditTree.this.delete(this.pos);
+			}
+			int k = this.depth - 1;
+			if (this.nodes[k] instanceof ChunkNode && this.nodes[k].width() > 1) {
+				char ch = ((ChunkNode) this.nodes[k]).take(this.offset);
+				this.resize(-1, (ch == '\n') ? -1 : 0);
+				if (EditTree.this.history != null) {
+					EditTree.this.history.deleted(this.pos, ch);
+				}
+				if (EditTree.this.index != null) {
+					EditTree.this.index.replaced(this.pos, 1, 0);
+				}
+				if (EditTree.this.metrics != null) {
+					this.record(Operation.DELETE, start);
+				}
+				ChunkNode chunk = (ChunkNode) this.nodes[k];
+				if (chunk.isSmall()) {
+					EditTree.this.mergeSmall(this.pos - this.offset, chunk);
+					this.kept(k);
+				}
+				return ch;
+			}
+			// the node is taken out, so it goes down no further than the node
+			Wrap w = this.along(k);
+			this.nodes[k].delete(this.pos - this.starts[k], w);
+			w.finish(-1, (w.delVal == '\n') ? -1 : 0);
+			char ch = EditTree.this.deleted(w, this.pos, start);
+			this.kept(k);
+			return ch;
+		}
+
+		/**
+		 * Removes the character before the cursor, as backspace does
+		 * 
+		 * @return the character that is deleted
+		 * @throws IndexOutOfBoundsException
+		 *             if the cursor is at the start of the tree
+		 */
+		public char backspace() throws IndexOutOfBoundsException {
+			this.sync();
+			if (this.pos == 0) {
+				throw new IndexOutOfBoundsException();
+			}
+			this.pos--;
+			return this.delete();
+		}
+
+		/**
+		 * Starts the path over from the root if the tree has changed since it
+		 * was found
+		 */
+		private void sync() {
+			if (this.seen == EditTree.this.modCount && this.depth > 0) {
+				return;
+			}
+			this.restarts++;
+			Node root = EditTree.this.root;
+			int height = EditTree.this.height;
+			if (this.nodes.length < height + 2) {
+				this.nodes = new Node[height + 2];
+				this.starts = new int[height + 2];
+				this.ends = new int[height + 2];
+			}
+			this.nodes[0] = root;
+			this.starts[0] = 0;
+			this.ends[0] = EditTree.this.size;
+			this.depth = 1;
+			this.seen = EditTree.this.modCount;
+			this.pos = Math.min(this.pos, this.ends[0]);
+		}
+
+		/**
+		 * Points the path at the node holding position target, climbing only
+		 * until a subtree holds target
+		 * 
+		 * @return true if a node holds target, false if it is the end
+		 */
+		private boolean seek(int target) {
+			this.sync();
+			while (this.depth > 1 && (target < this.starts[this.depth - 1] || target >= this.ends[this.depth - 1])) {
+				this.depth--;
+			}
+			int level = this.depth - 1;
+			Node n = this.nodes[level];
+			while (!(n instanceof Null_Node)) {
+				int own = this.starts[level] + n.rank;
+				if (target >= own && target < own + n.width()) {
+					this.offset = target - own;
+					this.depth = level + 1;
+					return true;
+				}
+				level++;
+				if (target < own) {
+					n = n.left;
+					this.starts[level] = this.starts[level - 1];
+					this.ends[level] = own;
+				} else {
+					this.starts[level] = own + n.width();
+					this.ends[level] = this.ends[level - 1];
+					n = n.right;
+				}
+				this.nodes[level] = n;
+			}
+			this.depth = level;
+			return false;
+		}
+
+		/**
+		 * @return the deepest level of the path that addAt, putting a
+		 *         character at pos, would go down through from the root
+		 */
+		private int fork(int pos) {
+			int k = 0;
+			while (k + 1 < this.depth) {
+				Node n = this.nodes[k];
+				int own = this.starts[k] + n.rank;
+				Node next;
+				if (n instanceof ChunkNode) {
+					// a chunk takes characters added at either end of it
+					next = (pos < own) ? n.left : (pos > own + n.width()) ? n.right : null;
+				} else {
+					next = (pos <= own) ? n.left : n.right;
+				}
+				if (next != this.nodes[k + 1]) {
+					break;
+				}
+				k++;
+			}
+			return k;
+		}
+
+		/**
+		 * @return the tree's wrap with the path down to level k on it, for an
+		 *         edit started from the node at level k
+		 */
+		private Wrap along(int k) {
+			Wrap w = EditTree.this.wrap();
+			for (int i = 0; i < k; i++) {
+				w.push(this.nodes[i], (this.nodes[i].left == this.nodes[i + 1]) ? Node.LEFT : Node.RIGHT);
+			}
+			return w;
+		}
+
+		/**
+		 * Keeps the levels of the path down to level k that an edit of the
+		 * tree near them left in place, so that the cursor goes on from there
+		 * rather than searching from the root. A rotation or a node taken out
+		 * changes the child its parent points to, so the path is kept down to
+		 * the parent of the highest node that moved. The kept levels' ranges
+		 * are worked out again from the ranks on the way down.
+		 */
+		private void kept(int k) {
+			int level = 0;
+			if (this.nodes[0] == EditTree.this.root) {
+				this.ends[0] = EditTree.this.size;
+				level = 1;
+				while (level <= k) {
+					Node parent = this.nodes[level - 1];
+					int own = this.starts[level - 1] + parent.rank;
+					if (parent.left == this.nodes[level]) {
+						this.starts[level] = this.starts[level - 1];
+						this.ends[level] = own;
+					} else if (parent.right == this.nodes[level]) {
+						this.starts[level] = own + parent.width();
+						this.ends[level] = this.ends[level - 1];
+					} else {
+						break;
+					}
+					level++;
+				}
+			}
+			if (this.nodes.length < EditTree.this.height + 2) {
+				this.nodes = Arrays.copyOf(this.nodes, EditTree.this.height + 2);
+				this.starts = Arrays.copyOf(this.starts, EditTree.this.height + 2);
+				this.ends = Arrays.copyOf(this.ends, EditTree.this.height + 2);
+			}
+			this.depth = level;
+			this.seen = EditTree.this.modCount;
+		}
+
+		/**
+		 * @return true if every node on the path may be changed in place
+		 */
+		private boolean ownsPath() {
+			for (int i = 0; i < this.depth; i++) {
+				if (this.nodes[i].epoch != EditTree.this.epoch) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Fixes up the ranks, newline counts and ranges on the path after the
+		 * node at its end gained or lost characters, and marks the hashes on
+		 * it out of date to be recomputed once something reads them
+		 */
+		private void resize(int change, int lines) {
+			for (int i = this.depth - 2; i >= 0; i--) {
+				Node parent = this.nodes[i];
+				if (parent.left == this.nodes[i + 1]) {
+					parent.rank += change;
+				}
+				parent.lines += lines;
+				parent.invalidate();
+			}
+			for (int i = 0; i < this.depth; i++) {
+				this.ends[i] += change;
+			}
+			EditTree.this.size += change;
+			EditTree.this.modCount++;
+			this.seen = EditTree.this.modCount;
+		}
+
+		/**
+		 * Adds an edit made in place to the metrics, at the depth of the node
+		 * at the end of the path. It needs no rotations or new nodes.
+		 */
+		private void record(Operation op, long start) {
+			EditTree.this.record(op, System.nanoTime() - start, this.pos, this.depth - 1, 0, 0);
+		}
+	}
+
+	/**
+	 * Finds the index of a specified string in this EditorTree
+	 * 
+	 * @param s
+	 *            the string to look for
+	 * @return the position in this tree of the first occurrence of s; -1 if s
+	 *         does not occur
+	 */
+	public int find(String s) {
+		return this.find(s, 0);
+	}
+
+	/**
+	 * Returns the position in this tree of the first occurrence of s that does
+	 * not occur before position pos. The characters are read in order from pos
+	 * and matched with Knuth-Morris-Pratt, so the search stops at the first
+	 * match and allocates only in proportion to s and the height of the tree.
+	 * 
+	 * @param s
+	 *            the string to search for
+	 * @param pos
+	 *            the position in the tree to begin the search
+	 * @return the position in this tree of the first occurrence of s that does
+	 *         not occur before position pos; -1 if s does not occur
+	 */
+	public int find(String s, int pos) {
+		if (this.metrics == null) {
+			return this.search(s, pos);
+		}
+		long start = System.nanoTime();
+		int found = this.search(s, pos);
+		this.record(Operation.FIND, System.nanoTime() - start, found, -1, 0, 0);
+		return found;
+	}
+
+	/**
+	 * Finds s as find does, without metrics
+	 */
+	private int search(String s, int pos) {
+		int start = Math.max(pos, 0);
+		int size = this.size();
+		if (s.length() == 0) {
+			return Math.min(start, size);
+		}
+		if (start + s.length() > size) {
+			return -1;
+		}
+		if (this.index != null && s.length() >= this.index.gramLength()) {
+			return this.indexedSearch(s, start);
+		}
+		return new Finder(s, start, size).find();
+	}
+
+	/**
+	 * Finds s as search does, but only reads the blocks of the index that s
+	 * may start in, and as far past each as s may run
+	 */
+	private int indexedSearch(String s, int pos) {
+		int[] grams = this.index.grams(s);
+		int block = this.index.blockOf(pos);
+		int start = this.index.start(block);
+		for (; block < this.index.blocks(); block++) {
+			int end = start + this.index.length(block);
+			if (this.index.mayStart(this.root, this.size, block, start, grams, s.length())) {
+				int found = new Finder(s, Math.max(start, pos), Math.min(end + s.length() - 1, this.size)).find();
+				if (found != -1) {
+					return found;
+				}
+			}
+			start = end;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds every occurrence of s in this tree, as findAll(s, 0, size()) does.
+	 * 
+	 * @param s
+	 *            the string to search for
+	 * @return the positions of the occurrences, in order
+	 */
+	public IntStream findAll(String s) {
+		return this.findAll(s, 0, this.size());
+	}
+
+	/**
+	 * Finds the occurrences of s that lie within a range of this tree, such as
+	 * the part of it on screen. Like find, the search reads the characters of
+	 * the range in order and matches them with Knuth-Morris-Pratt, but it goes
+	 * on from each match instead of starting over, so the whole stream takes
+	 * one pass over the range. Positions are found lazily as the stream is
+	 * consumed. Occurrences do not overlap; after one is found the search goes
+	 * on from its end, as Matcher.find does. The tree must not be changed
+	 * while the stream is in use.
+	 * 
+	 * @param s
+	 *            the string to search for
+	 * @param from
+	 *            the position where the range starts
+	 * @param to
+	 *            the position where it ends, after its last character
+	 * @return the positions of the occurrences, in order
+	 * @throws IndexOutOfBoundsException
+	 *             unless 0 <= from <= to <= size()
+	 */
+	public IntStream findAll(String s, int from, int to) throws IndexOutOfBoundsException {
+		if (from < 0 || from > to || to > this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (s.length() == 0) {
+			return IntStream.rangeClosed(from, to);
+		}
+		Spliterator.OfInt found = Spliterators.spliteratorUnknownSize(new Finder(s, from, to),
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL);
+		return StreamSupport.intStream(found, false);
+	}
+
+	/**
+	 * Finds the matches of p in this tree, as matches(p, 0, size()) does.
+	 * 
+	 * @param p
+	 *            the pattern to match
+	 * @return the matches, in order
+	 */
+	public Stream<MatchResult> matches(Pattern p) {
+		return this.matches(p, 0, this.size());
+	}
+
+	/**
+	 * Finds the matches of p that lie within a range of this tree, without
+	 * copying the tree into a string. One Matcher runs over a CharSequence view
+	 * of the tree, which reads on from where the last character was read in
+	 * amortized O(1) time, so scanning the range is one pass over it; only
+	 * the regex engine's backtracking reads out of order. Matches are found
+	 * lazily as the stream is consumed. The range bounds where matches may
+	 * lie, not what the pattern sees: lookarounds may look past its ends,
+	 * and ^ and $ only match at the ends of the range if lines start or end
+	 * there. Each match keeps the text of its groups, not the tree. The tree
+	 * must not be changed while the stream is in use.
+	 * 
+	 * @param p
+	 *            the pattern to match
+	 * @param from
+	 *            the position where the range starts
+	 * @param to
+	 *            the position where it ends, after its last character
+	 * @return the matches, in order
+	 * @throws IndexOutOfBoundsException
+	 *             unless 0 <= from <= to <= size()
+	 */
+	public Stream<MatchResult> matches(Pattern p, int from, int to) throws IndexOutOfBoundsException {
+		if (from < 0 || from > to || to > this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		View view = new View();
+		Matcher m = p.matcher(view).region(from, to).useTransparentBounds(true).useAnchoringBounds(false);
+		Spliterator<MatchResult> found = Spliterators.spliteratorUnknownSize(new Matches(m, view),
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(found, false);
+	}
+
+	/**
+	 * Finds the occurrences of a string in part of this tree one at a time,
+	 * keeping its place between them
+	 */
+	private class Finder implements PrimitiveIterator.OfInt {
+
+		private String s;
+		private int[] fallback;
+		private CharIterator it;
+		// the characters read from it and not yet matched
+		private char[] block;
+		private int at;
+		private int read;
+		// the position of the next character to match, and the end of the
+		// range
+		private int pos;
+		private int to;
+		// how many characters of s the last ones read match
+		private int matched;
+		// the next occurrence, -1 if there is none, or -2 if not yet found
+		private int next;
+		// the modCount of the tree when the search started
+		private int seen;
+
+		public Finder(String s, int from, int to) {
+			this.s = s;
+			this.fallback = EditTree.prefixTable(s);
+			this.it = new CharIterator(EditTree.this.root, from);
+			this.block = new char[VIEW_WINDOW];
+			this.pos = from;
+			this.to = to;
+			this.next = -2;
+			this.seen = EditTree.this.modCount;
+		}
+
+		/**
+		 * Reads on to the end of the next occurrence
+		 * 
+		 * @return its position, or -1 if there is none before the end of the
+		 *         range
+		 */
+		public int find() {
+			while (this.pos < this.to) {
+				if (this.at == this.read) {
+					this.read = this.it.read(this.block, 0, Math.min(this.block.length, this.to - this.pos));
+					this.at = 0;
+				}
+				char ch = this.block[this.at++];
+				this.pos++;
+				while (this.matched > 0 && ch != this.s.charAt(this.matched)) {
+					this.matched = this.fallback[this.matched - 1];
+				}
+				if (ch == this.s.charAt(this.matched)) {
+					this.matched++;
+					if (this.matched == this.s.length()) {
+						this.matched = 0;
+						return this.pos - this.s.length();
+					}
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.seen != EditTree.this.modCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.next == -2) {
+				this.next = this.find();
+			}
+			return this.next != -1;
+		}
+
+		@Override
+		public int nextInt() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int found = this.next;
+			this.next = -2;
+			return found;
+		}
+	}
+
+	/**
+	 * Runs a matcher over this tree one match at a time
+	 */
+	private class Matches implements Iterator<MatchResult> {
+
+		private Matcher m;
+		private View view;
+		// the next match, or null if it is not yet found or there is none
+		private MatchResult next;
+		private boolean done;
+		// the modCount of the tree when the search started
+		private int seen;
+
+		public Matches(Matcher m, View view) {
+			this.m = m;
+			this.view = view;
+			this.seen = EditTree.this.modCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.seen != EditTree.this.modCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.next == null && !this.done) {
+				if (this.m.find()) {
+					this.next = new Match(this.m, this.view);
+				} else {
+					this.done = true;
+				}
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public MatchResult next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			MatchResult found = this.next;
+			this.next = null;
+			return found;
+		}
+	}
+
+	/**
+	 * A match found in this tree. Matcher.toMatchResult would copy the whole
+	 * tree into a string for each match, so this keeps only the text from the
+	 * first group's start to the last one's end.
+	 */
+	private static class Match implements MatchResult {
+
+		private int[] starts;
+		private int[] ends;
+		// the characters from position offset that the groups lie among
+		private String text;
+		private int offset;
+
+		public Match(Matcher m, CharSequence tree) {
+			int groups = m.groupCount() + 1;
+			this.starts = new int[groups];
+			this.ends = new int[groups];
+			int first = m.start();
+			int last = m.end();
+			for (int g = 0; g < groups; g++) {
+				this.starts[g] = m.start(g);
+				this.ends[g] = m.end(g);
+				if (this.starts[g] != -1) {
+					first = Math.min(first, this.starts[g]);
+					last = Math.max(last, this.ends[g]);
+				}
+			}
+			this.offset = first;
+			this.text = tree.subSequence(first, last).toString();
+		}
+
+		@Override
+		public int start() {
+			return this.starts[0];
+		}
+
+		@Override
+		public int start(int group) {
+			return this.starts[group];
+		}
+
+		@Override
+		public int end() {
+			return this.ends[0];
+		}
+
+		@Override
+		public int end(int group) {
+			return this.ends[group];
+		}
+
+		@Override
+		public String group() {
+			return this.group(0);
+		}
+
+		@Override
+		public String group(int group) {
+			if (this.starts[group] == -1) {
+				return null;
+			}
+			return this.text.substring(this.starts[group] - this.offset, this.ends[group] - this.offset);
+		}
+
+		@Override
+		public int groupCount() {
+			return this.starts.length - 1;
+		}
+	}
+
+	/**
+	 * Gives a hash of the length characters starting at pos, in O(log N) time
+	 * from the hashes each node keeps of its subtree. Equal text always has
+	 * equal hashes, wherever it is in whichever tree.
+	 * 
+	 * Nodes only keep hashes once something asks for one, here or through the
+	 * code point methods, so the first call takes O(N) time and gives every
+	 * node another 32 bytes or so. That is most of what a single-character
+	 * node takes again, and trees that never hash do without it.
+	 * 
+	 * @param pos
+	 *            position of the first character to hash
+	 * @param length
+	 *            number of characters to hash
+	 * @return the hash of those characters
+	 * @throws IndexOutOfBoundsException
+	 *             unless both pos and pos+length are between 0 and the size of
+	 *             this tree and length is not negative
+	 */
+	public long regionHash(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.root = this.root.refresh(this.epoch);
+		long before = this.root.hashBefore(pos);
+		long through = this.root.hashBefore(pos + length);
+		// shift the range's hash down to start at BASE^0
+		return PolyHash.multiply(PolyHash.subtract(through, before), PolyHash.power(PolyHash.INVERSE, pos));
+	}
+
+	/**
+	 * Tells whether the length characters starting at pos1 are the same as
+	 * those starting at pos2, in O(log N) time by comparing hashes. Different
+	 * text is reported equal with probability about length / 2^61.
+	 * 
+	 * @param pos1
+	 * @param pos2
+	 * @param length
+	 * @return true if the two ranges hold the same characters
+	 * @throws IndexOutOfBoundsException
+	 *             if either range is not within this tree
+	 */
+	public boolean regionEquals(int pos1, int pos2, int length) throws IndexOutOfBoundsException {
+		return this.regionHash(pos1, length) == this.regionHash(pos2, length);
+	}
+
+	/**
+	 * Builds the Knuth-Morris-Pratt table for s: entry i is the length of the
+	 * longest proper prefix of s that is also a suffix of s's first i + 1
+	 * characters.
+	 */
+	private static int[] prefixTable(String s) {
+		int[] table = new int[s.length()];
+		int k = 0;
+		for (int i = 1; i < s.length(); i++) {
+			while (k > 0 && s.charAt(i) != s.charAt(k)) {
+				k = table[k - 1];
+			}
+			if (s.charAt(i) == s.charAt(k)) {
+				k++;
+			}
+			table[i] = k;
+		}
+		return table;
 	}
 
 	/**
@@ -283,7 +2361,8 @@ public class EditTree {
 	}
 
 	/**
-	 * An inefficient algorithm for determining the number of nodes in the tree
+	 * An inefficient algorithm for determining the number of characters in the
+	 * tree
 	 * 
 	 * @return size
 	 */
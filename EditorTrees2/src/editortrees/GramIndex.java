@@ -0,0 +1,370 @@
+package editortrees;
+
+import java.util.Arrays;
+
+/**
+ * An index of the n-grams of an EditTree's characters, so that find can skip
+ * the parts of the tree a string cannot be in. The characters are cut into
+ * blocks of about BLOCK characters, and each block keeps a Bloom filter of
+ * the n-grams that start in it, one bit per n-gram. A string can only start
+ * in a block whose filter has its first n-gram and whose filter, or those of
+ * the blocks it runs on into, have the rest, so only those blocks are read.
+ *
+ * The index keeps block lengths rather than positions. An edit changes the
+ * lengths of the blocks it falls in, through a Fenwick tree over them, in
+ * O(log B) time for B blocks, and marks their filters stale. A stale filter
+ * is built again from the tree the next time a search reaches it, so edits
+ * cost nothing more until then, and then only the blocks edited are read.
+ * Blocks that grow past MAX_BLOCK, shrink below MIN_BLOCK or empty are cut
+ * again with their neighbors into even ones.
+ */
+class GramIndex {
+
+	// the characters a block is cut to hold, and the most and fewest it may
+	// hold before it is cut again
+	static final int BLOCK = 4096;
+	static final int MAX_BLOCK = 2 * BLOCK;
+	static final int MIN_BLOCK = BLOCK / 4;
+	// the longest n-grams indexed
+	static final int MAX_GRAM = 16;
+	// bits in each block's filter, 2^13, of which the n-grams of a block of
+	// English set about a quarter
+	private static final int FILTER_SHIFT = 32 - 13;
+	private static final int FILTER_WORDS = (1 << 13) / 64;
+
+	private int gramLength;
+	// the lengths of the blocks in order, and a Fenwick tree over them whose
+	// entry i, counting from 1, sums the lengths of blocks i - (i & -i)
+	// through i - 1
+	private int[] lengths;
+	private int[] sums;
+	private int blocks;
+	// each block's filter, null until it is first built, and whether it is
+	// out of date
+	private long[][] filters;
+	private boolean[] stale;
+	// holds the characters of a block while its filter is built
+	private char[] buffer;
+
+	/**
+	 * Makes an index of the n-grams of a tree of the given size. The filters
+	 * are all stale, so they are built by the first search.
+	 *
+	 * @param gramLength
+	 *            from 1 to MAX_GRAM
+	 * @param size
+	 *            the number of characters in the tree
+	 */
+	public GramIndex(int gramLength, int size) {
+		this.gramLength = gramLength;
+		this.buffer = new char[MAX_BLOCK + MAX_GRAM];
+		int count = (size + BLOCK - 1) / BLOCK;
+		this.allocate(Math.max(count, 16));
+		for (int b = 0; b < count; b++) {
+			this.lengths[b] = size / count + ((b < size % count) ? 1 : 0);
+			this.stale[b] = true;
+		}
+		this.blocks = count;
+		this.sum();
+	}
+
+	private void allocate(int capacity) {
+		this.lengths = new int[capacity];
+		this.filters = new long[capacity][];
+		this.stale = new boolean[capacity];
+	}
+
+	/**
+	 * @return the length of the n-grams indexed
+	 */
+	public int gramLength() {
+		return this.gramLength;
+	}
+
+	/**
+	 * @return the number of blocks
+	 */
+	public int blocks() {
+		return this.blocks;
+	}
+
+	/**
+	 * @return the number of characters in a block
+	 */
+	public int length(int block) {
+		return this.lengths[block];
+	}
+
+	/**
+	 * @return whether a block's filter must be built again before it is used
+	 */
+	public boolean isStale(int block) {
+		return this.stale[block];
+	}
+
+	/**
+	 * @return the position of a block's first character, in O(log B) time
+	 */
+	public int start(int block) {
+		int start = 0;
+		for (int i = block; i > 0; i -= i & -i) {
+			start += this.sums[i];
+		}
+		return start;
+	}
+
+	/**
+	 * Finds the block holding a position in O(log B) time
+	 *
+	 * @param pos
+	 *            a position from 0 to the size of the tree
+	 * @return the block holding it, or the last block if pos is the size of
+	 *         the tree
+	 */
+	public int blockOf(int pos) {
+		int block = 0;
+		for (int step = Integer.highestOneBit(Math.max(this.blocks, 1)); step > 0; step >>= 1) {
+			if (block + step <= this.blocks && this.sums[block + step] <= pos) {
+				block += step;
+				pos -= this.sums[block];
+			}
+		}
+		return Math.min(block, this.blocks - 1);
+	}
+
+	/**
+	 * Notes that removed characters at pos were replaced by added others,
+	 * marking stale the blocks whose n-grams may have changed
+	 */
+	public void replaced(int pos, int removed, int added) {
+		if (this.blocks == 0) {
+			if (added == 0) {
+				return;
+			}
+			this.blocks = 1;
+			this.lengths[0] = 0;
+			this.sum();
+		}
+		int first = this.blockOf(pos);
+		int last = first;
+		int offset = pos - this.start(first);
+		while (removed > 0) {
+			int cut = Math.min(removed, this.lengths[last] - offset);
+			this.resize(last, -cut);
+			removed -= cut;
+			offset = 0;
+			if (removed > 0) {
+				last++;
+			}
+		}
+		if (added > 0) {
+			// the first block is left empty if the range started it
+			int block = (this.lengths[first] == 0 && last > first) ? last : first;
+			this.resize(block, added);
+		}
+		// n-grams starting just before pos run on into the edit
+		if (pos > 0) {
+			int before = this.blockOf(Math.max(pos - this.gramLength + 1, 0));
+			for (int b = before; b < first; b++) {
+				this.stale[b] = true;
+			}
+		}
+		this.recut(Math.max(first - 1, 0), Math.min(last + 1, this.blocks - 1));
+	}
+
+	/**
+	 * Changes the length of a block and marks it stale
+	 */
+	private void resize(int block, int change) {
+		this.lengths[block] += change;
+		this.stale[block] = true;
+		for (int i = block + 1; i <= this.blocks; i += i & -i) {
+			this.sums[i] += change;
+		}
+	}
+
+	/**
+	 * Cuts the blocks from first through last again into even ones if any of
+	 * them is empty, too long, or too short
+	 */
+	private void recut(int first, int last) {
+		int total = 0;
+		boolean uneven = false;
+		for (int b = first; b <= last; b++) {
+			int length = this.lengths[b];
+			total += length;
+			uneven |= length == 0 || length > MAX_BLOCK || (length < MIN_BLOCK && this.blocks > 1);
+		}
+		if (!uneven) {
+			return;
+		}
+		int count = (total + BLOCK - 1) / BLOCK;
+		int change = count - (last - first + 1);
+		if (this.blocks + change > this.lengths.length) {
+			int[] lengths = this.lengths;
+			long[][] filters = this.filters;
+			boolean[] stale = this.stale;
+			this.allocate(Math.max(this.blocks + change, 2 * this.lengths.length));
+			System.arraycopy(lengths, 0, this.lengths, 0, this.blocks);
+			System.arraycopy(filters, 0, this.filters, 0, this.blocks);
+			System.arraycopy(stale, 0, this.stale, 0, this.blocks);
+		}
+		int tail = this.blocks - last - 1;
+		System.arraycopy(this.lengths, last + 1, this.lengths, last + 1 + change, tail);
+		System.arraycopy(this.filters, last + 1, this.filters, last + 1 + change, tail);
+		System.arraycopy(this.stale, last + 1, this.stale, last + 1 + change, tail);
+		for (int i = 0; i < count; i++) {
+			this.lengths[first + i] = total / count + ((i < total % count) ? 1 : 0);
+			this.filters[first + i] = null;
+			this.stale[first + i] = true;
+		}
+		this.blocks += change;
+		// let go of the filters moved out from the end
+		Arrays.fill(this.filters, this.blocks, this.filters.length, null);
+		this.sum();
+	}
+
+	/**
+	 * Builds the Fenwick tree over the block lengths in O(B) time
+	 */
+	private void sum() {
+		this.sums = new int[this.lengths.length + 1];
+		for (int i = 1; i <= this.blocks; i++) {
+			this.sums[i] += this.lengths[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= this.blocks) {
+				this.sums[parent] += this.sums[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the filter bit of each n-gram of s in order, for mayStart
+	 */
+	public int[] grams(String s) {
+		int[] grams = new int[s.length() - this.gramLength + 1];
+		int power = GramIndex.power(this.gramLength);
+		int hash = 0;
+		for (int i = 0; i < s.length(); i++) {
+			hash = GramIndex.roll(hash, s.charAt(i), (i >= this.gramLength) ? s.charAt(i - this.gramLength) : 0, power);
+			if (i >= this.gramLength - 1) {
+				grams[i - this.gramLength + 1] = GramIndex.bit(hash);
+			}
+		}
+		return grams;
+	}
+
+	/**
+	 * Tells whether a string with the given n-grams may start in a block.
+	 * Its first n-gram must start in the block, and the rest in the block or
+	 * the ones after it that the string may run on into. The filters looked
+	 * at are brought up to date from the tree first.
+	 *
+	 * @param root
+	 *            the root of the tree indexed
+	 * @param size
+	 *            the size of the tree
+	 * @param block
+	 * @param start
+	 *            the position of the block's first character
+	 * @param grams
+	 *            from grams(s)
+	 * @param length
+	 *            the length of s
+	 * @return false if s cannot start in the block
+	 */
+	public boolean mayStart(Node root, int size, int block, int start, int[] grams, int length) {
+		this.refresh(root, size, block, start);
+		if (!GramIndex.has(this.filters[block], grams[0])) {
+			return false;
+		}
+		// the last position where one of the n-grams may start
+		int reach = start + this.lengths[block] - 1 + length - this.gramLength;
+		int last = block;
+		for (int next = start + this.lengths[block]; last + 1 < this.blocks && next <= reach; last++) {
+			this.refresh(root, size, last + 1, next);
+			next += this.lengths[last + 1];
+		}
+		for (int gram : grams) {
+			boolean found = false;
+			for (int b = block; b <= last && !found; b++) {
+				found = GramIndex.has(this.filters[b], gram);
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a block's filter again if it is stale, from the n-grams starting
+	 * in it, reading as far into the next block as they run
+	 */
+	private void refresh(Node root, int size, int block, int start) {
+		if (!this.stale[block]) {
+			return;
+		}
+		int length = this.lengths[block];
+		int end = Math.min(start + length + this.gramLength - 1, size);
+		int count = new CharIterator(root, start).read(this.buffer, 0, end - start);
+		long[] filter = this.filters[block];
+		if (filter == null) {
+			filter = new long[FILTER_WORDS];
+			this.filters[block] = filter;
+		} else {
+			Arrays.fill(filter, 0);
+		}
+		int power = GramIndex.power(this.gramLength);
+		int hash = 0;
+		for (int i = 0; i < count; i++) {
+			hash = GramIndex.roll(hash, this.buffer[i], (i >= this.gramLength) ? this.buffer[i - this.gramLength] : 0,
+					power);
+			int gram = i - this.gramLength + 1;
+			if (gram >= 0 && gram < length) {
+				int bit = GramIndex.bit(hash);
+				filter[bit >>> 6] |= 1L << bit;
+			}
+		}
+		this.stale[block] = false;
+	}
+
+	/**
+	 * @return 31 to the power n, wrapping around as ints do
+	 */
+	private static int power(int n) {
+		int power = 1;
+		for (int i = 0; i < n; i++) {
+			power *= 31;
+		}
+		return power;
+	}
+
+	/**
+	 * Moves a rolling hash of the last n characters on by one
+	 *
+	 * @param hash
+	 *            the hash of the n characters before ch
+	 * @param ch
+	 *            the character coming in
+	 * @param out
+	 *            the character n before ch, going out, or 0 if there is none
+	 * @param power
+	 *            31 to the power n
+	 * @return the hash of the n characters ending with ch
+	 */
+	private static int roll(int hash, char ch, char out, int power) {
+		return hash * 31 + ch - out * power;
+	}
+
+	/**
+	 * @return the filter bit for the hash of an n-gram
+	 */
+	private static int bit(int hash) {
+		return (hash * 0x9E3779B9) >>> FILTER_SHIFT;
+	}
+
+	private static boolean has(long[] filter, int bit) {
+		return (filter[bit >>> 6] & (1L << bit)) != 0;
+	}
+}
@@ -1,33 +1,229 @@
 package editortrees;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 // A node in a height-balanced binary tree with rank.
 
-public class Node {
-	class Wrap {
+public class Node implements Cloneable {
+	static class Wrap {
 		// holds whether or not we need to check if the tree is balanced at the
 		// current Node
 		Change change;
 		Node n;
 		char delVal;
 		int rotations;
-		int inserted;
+		// of the rotations, how many were double rotations (each counted
+		// twice above), and how many nodes the edit made or copied
+		int doubleRotations;
+		int allocated;
+		// the node taken out of the tree by removeFirst, removeLast or
+		// removeAt
+		Node removed;
+		// a chunk a delete left less than half full, and the index in it of
+		// the character taken out, for the tree to merge with a neighbour
+		ChunkNode shrunk;
+		int shrunkAt;
+		// the height of the tree a concatenation built
+		int height;
+		// nodes from any other epoch are copied before they are changed
+		int epoch;
+		// the nodes an edit went down through, and whether it went left from
+		// each, for the way back up. Nodes left above depth by earlier edits
+		// are overwritten rather than cleared.
+		Node[] path;
+		boolean[] lefts;
+		int depth;
+		// how long the path was when the last climb back up started, which
+		// for a whole edit is the depth of the node it worked on
+		int reached;
 
-		public Wrap(char ch) {
-			this.n = new Node(ch);
+		/**
+		 * Makes a wrap for the edits of the tree whose epoch is given. A tree
+		 * keeps one and resets it before each edit, so that edits in steady
+		 * state allocate nothing but the nodes they add.
+		 */
+		public Wrap(int epoch) {
+			this.path = new Node[32];
+			this.lefts = new boolean[32];
+			this.reset(epoch);
+		}
+
+		/**
+		 * Clears whatever the last edit left in this wrap
+		 * 
+		 * @param epoch
+		 *            the epoch of the tree about to be changed
+		 * @return this wrap
+		 */
+		public Wrap reset(int epoch) {
+			this.change = Change.NONE;
+			this.n = null;
+			this.delVal = 0;
 			this.rotations = 0;
-			this.change = Change.INS;
+			this.doubleRotations = 0;
+			this.allocated = 0;
+			this.removed = null;
+			this.shrunk = null;
+			this.epoch = epoch;
+			this.depth = 0;
+			this.reached = 0;
+			return this;
 		}
 
-		public Wrap(Node n) {
+		/**
+		 * Sets the new head of the subtree being worked on and how its height
+		 * changed
+		 * 
+		 * @return this wrap
+		 */
+		public Wrap set(Node n, Change change) {
 			this.n = n;
-			this.rotations = 0;
-			this.change = Change.DEL;
+			this.change = change;
+			return this;
+		}
+
+		/**
+		 * Sets a new node holding ch, of this wrap's epoch, as the head of an
+		 * empty subtree that just grew
+		 * 
+		 * @return this wrap
+		 */
+		public Wrap insert(char ch) {
+			Node node = new Node(ch);
+			node.epoch = this.epoch;
+			this.allocated++;
+			return this.set(node, Change.INS);
+		}
+
+		/**
+		 * @return n if the tree being changed may change it in place,
+		 *         otherwise a copy that it may
+		 */
+		public Node own(Node n) {
+			if (n.epoch == this.epoch) {
+				return n;
+			}
+			Node copy = n.own(this.epoch);
+			if (copy != n) {
+				this.allocated++;
+			}
+			return copy;
+		}
+
+		/**
+		 * Notes that an edit went down from n in direction dir
+		 */
+		public void push(Node n, byte dir) {
+			if (this.depth == this.path.length) {
+				this.grow();
+			}
+			this.path[this.depth] = n;
+			this.lefts[this.depth] = dir == LEFT;
+			this.depth++;
+		}
+
+		private void grow() {
+			this.path = Arrays.copyOf(this.path, this.depth * 2);
+			this.lefts = Arrays.copyOf(this.lefts, this.depth * 2);
+		}
+
+		/**
+		 * @return n if the tree being changed may change it in place,
+		 *         otherwise a copy that it may, put in n's place under the last
+		 *         node on the path
+		 */
+		public Node own(Node n, int base) {
+			Node copy = this.own(n);
+			if (copy != n && this.depth > base) {
+				Node parent = this.path[this.depth - 1];
+				if (this.lefts[this.depth - 1]) {
+					parent.left = copy;
+				} else {
+					parent.right = copy;
+				}
+			}
+			return copy;
+		}
+
+		/**
+		 * Fixes up the nodes on the path from base down for an edit about to
+		 * be made below them: ranks where the path went left, newline counts,
+		 * and hashes, which are marked out of date. Done once the edit is
+		 * known to be good, so that the climb back up can stop early.
+		 * 
+		 * @param delta
+		 *            the number of characters the edit adds
+		 * @param newlines
+		 *            the number of newlines the edit adds
+		 */
+		public void adjust(int base, int delta, int newlines) {
+			for (int i = base; i < this.depth; i++) {
+				Node n = this.path[i];
+				if (this.lefts[i])
+					n.rank += delta;
+				n.lines += newlines;
+				n.invalidate();
+			}
+		}
+
+		/**
+		 * Goes back up the path to the given depth, rebalancing each node as
+		 * the recursive edits do on their way back. It stops at the first node
+		 * whose subtree kept both its root and its height, since adjust has
+		 * already fixed up the nodes from there up.
+		 * 
+		 * @param base
+		 *            the depth of the path when the edit started
+		 */
+		public void climb(int base) {
+			this.reached = this.depth;
+			for (int i = this.depth - 1; i >= base; i--) {
+				Node n = this.path[i];
+				byte dir = this.lefts[i] ? LEFT : RIGHT;
+				if (this.change == Change.NONE && n.get(dir) == this.n) {
+					this.n = this.path[base];
+					break;
+				}
+				n.check(this, dir);
+			}
+			this.depth = base;
+		}
+
+		/**
+		 * Finishes an edit that was started from the node below the path's
+		 * first depth nodes instead of from the root, as an edit from the
+		 * root would have: fixes those nodes up for it and climbs back up
+		 * through them. The depth the edit reached is kept.
+		 * 
+		 * @param delta
+		 *            the number of characters the edit added
+		 * @param newlines
+		 *            the number of newlines the edit added
+		 */
+		public void finish(int delta, int newlines) {
+			int reached = this.reached;
+			this.adjust(0, delta, newlines);
+			this.climb(0);
+			this.reached = reached;
 		}
 	}
 
+	/**
+	 * The sums a refreshed node keeps of its subtree: its polynomial hash, BASE
+	 * to the power of how many characters it holds (see PolyHash), and how
+	 * many of them are low surrogates, which is how many fewer code points
+	 * than characters it holds. pow is 0 while they are out of date.
+	 */
+	static class Sums {
+		long hash;
+		long pow;
+		int lows;
+	}
+
 	enum Code {
 		SAME, LEFT, RIGHT;
 		// Used in the displayer and debug string
@@ -57,6 +253,78 @@ public class Node {
 				throw new IllegalStateException();
 			}
 		}
+
+		/**
+		 * @return the Code of a balance packed into a byte
+		 */
+		static Code of(byte balance) {
+			switch (balance) {
+			case Node.LEFT:
+				return Code.LEFT;
+			case Node.SAME:
+				return Code.SAME;
+			case Node.RIGHT:
+				return Code.RIGHT;
+			default:
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	// balance codes as nodes keep them: a byte packs in beside the other
+	// small fields, where a Code would take a reference
+	static final byte SAME = 0;
+	static final byte LEFT = 1;
+	static final byte RIGHT = 2;
+
+	/**
+	 * @return the opposite direction of dir, or SAME for SAME
+	 */
+	static byte not(byte dir) {
+		return (dir == SAME) ? SAME : (byte) (LEFT + RIGHT - dir);
+	}
+
+	/**
+	 * The two trees a split leaves, with their heights and the number of
+	 * rotations it took to build them
+	 */
+	class Split {
+		Node left, right;
+		int leftHeight, rightHeight;
+		int rotations;
+		// the wrap of the tree being split, which the joins report in
+		Wrap wrap;
+
+		public void set(Node left, int leftHeight, Node right, int rightHeight) {
+			this.left = left;
+			this.leftHeight = leftHeight;
+			this.right = right;
+			this.rightHeight = rightHeight;
+		}
+	}
+
+	/**
+	 * Builds one subtree for addFromString on a fork-join pool
+	 */
+	private static class Build extends RecursiveTask<Node> {
+
+		private static final long serialVersionUID = 1L;
+		private CharSequence st;
+		private int first;
+		private int last;
+		private int chunkSize;
+
+		public Build(CharSequence st, int first, int last, int chunkSize) {
+			this.st = st;
+			this.first = first;
+			this.last = last;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected Node compute() {
+			return Node.addNodes(this.st, this.first, this.last, this.chunkSize);
+		}
 	}
 
 	// Used to keep track of whether we inserted or deleted or whether we need
@@ -71,44 +339,106 @@ public class Node {
 	char element;
 	Node left, right;
 	int rank;
-	Code balance;
+	byte balance;
+	// number of newlines among this subtree's characters
+	int lines;
+	// the hash and low surrogate count of this subtree, which would take
+	// more room than the rest of the node together. Only trees that are
+	// asked for a hash or a code point index need them, so they stay null
+	// until refresh() first fills them in. While they are null or out of
+	// date, so are those of every node above.
+	Sums sums;
+	// the epoch of the tree allowed to change this node in place. Trees share
+	// nodes after a snapshot, and then each gets a new epoch, so an edit
+	// copies the shared nodes it needs to change instead.
+	int epoch;
 	// this is the same null node for every Node
-	static Node ournullnode = new Null_Node('%');
+	static final Node ournullnode = new Null_Node('%');
+	// trees with at least this many nodes have their halves built in parallel
+	private static final int PARALLEL_NODES = 1 << 14;
 
 	public Node(char ch) {
 		this.element = ch;
 		this.right = ournullnode;
 		this.left = ournullnode;
-		this.balance = Code.SAME;
+		this.balance = SAME;
 		this.rank = 0;
-
+		this.lines = (ch == '\n') ? 1 : 0;
 	}
 
 	public static Node addFromString(String st) {
-		int length = st.length();
-		if (length == 0) {
-			return ournullnode;
+		return Node.addFromString(st, 1);
+	}
+
+	/**
+	 * Builds a balanced tree whose nodes each hold up to chunkSize characters
+	 * of st. Every chunk but the last is full. The middle node of each range
+	 * becomes its root, and the ranges on either side are built by index
+	 * without copying st, in O(N) time. Big trees are built on the common
+	 * fork-join pool, one subtree per task.
+	 *
+	 * @param st
+	 * @param chunkSize
+	 *            the most characters a node may hold
+	 * @return the root of the new tree
+	 */
+	public static Node addFromString(CharSequence st, int chunkSize) {
+		int size = Math.max(chunkSize, 1);
+		int nodes = (st.length() + size - 1) / size;
+		if (nodes < PARALLEL_NODES) {
+			return Node.addNodes(st, 0, nodes, chunkSize);
 		}
-		int middle = (length) / 2;
-		Node node = new Node(st.charAt(middle));
-		String left = st.substring(0, middle);
-		int powFirst = Node.log2(middle);
-		int powSecond = Node.log2(length - middle - 1);
+		return ForkJoinPool.commonPool().invoke(new Build(st, 0, nodes, chunkSize));
+	}
 
-		if (powFirst > powSecond) {
-			node.balance = Code.LEFT;
+	/**
+	 * Builds the nodes with indexes first through last - 1 of st, the node
+	 * with index i holding the characters from i * chunkSize on
+	 */
+	private static Node addNodes(CharSequence st, int first, int last, int chunkSize) {
+		int count = last - first;
+		if (count == 0) {
+			return ournullnode;
+		}
+		int middle = first + count / 2;
+		Node node;
+		if (chunkSize <= 1) {
+			node = new Node(st.charAt(middle));
+			node.rank = middle - first;
 		} else {
-			node.balance = Code.SAME;
+			int start = middle * chunkSize;
+			node = new ChunkNode(st, start, Math.min(start + chunkSize, st.length()), chunkSize);
+			node.rank = start - first * chunkSize;
 		}
-
-		node.rank = middle;
-		node.left = Node.addFromString(left);
-		if (!(middle == length - 1)) {
-			node.right = Node.addFromString(st.substring(middle + 1));
+		node.balance = Node.balanceFor(count / 2, count - count / 2 - 1);
+		if (count >= PARALLEL_NODES) {
+			Build left = new Build(st, first, middle, chunkSize);
+			left.fork();
+			node.right = Node.addNodes(st, middle + 1, last, chunkSize);
+			node.left = left.join();
+		} else {
+			node.left = Node.addNodes(st, first, middle, chunkSize);
+			node.right = Node.addNodes(st, middle + 1, last, chunkSize);
 		}
+		// hashing every character would cost more than building the tree, so
+		// it waits until a hash is needed
+		node.updateLazily();
 		return node;
 	}
 
+	/**
+	 * Gives the balance code of a node built by addFromString, whose subtrees
+	 * hold the given numbers of nodes
+	 */
+	private static byte balanceFor(int leftCount, int rightCount) {
+		int powFirst = (leftCount == 0) ? -1 : Node.log2(leftCount);
+		int powSecond = (rightCount == 0) ? -1 : Node.log2(rightCount);
+		if (powFirst > powSecond) {
+			return LEFT;
+		}
+		return SAME;
+	}
+
 	/**
 	 * takes the int log[2](n) of the integer passed
 	 *
@@ -138,108 +468,656 @@ public class Node {
 		this.element = n.element;
 		this.balance = n.balance;
 		this.rank = n.rank;
-		if (n.right instanceof Null_Node) {
-			this.right = ournullnode;
+		this.lines = n.lines;
+		this.right = n.right.deepCopy();
+		this.left = n.left.deepCopy();
+	}
+
+	/**
+	 * @return a copy of this node and its whole subtree
+	 */
+	public Node deepCopy() {
+		return new Node(this);
+	}
+
+	/**
+	 * @return a copy of this node alone, sharing its children
+	 */
+	public Node copy() {
+		try {
+			Node copy = (Node) this.clone();
+			// the copy is about to change, and its sums with it
+			copy.sums = null;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param epoch
+	 *            the epoch of the tree being changed
+	 * @return this node if that tree may change it in place, otherwise a copy
+	 *         that it may
+	 */
+	public Node own(int epoch) {
+		if (this.epoch == epoch) {
+			return this;
+		}
+		Node copy = this.copy();
+		copy.epoch = epoch;
+		return copy;
+	}
+
+	/**
+	 * @return the number of characters held in this node
+	 */
+	public int width() {
+		return 1;
+	}
+
+	/**
+	 * @param offset
+	 *            index into this node's characters
+	 * @return the character at that index
+	 */
+	public char charAt(int offset) {
+		return this.element;
+	}
+
+	/**
+	 * @return the hash of this node's own characters
+	 */
+	public long ownHash() {
+		return this.element;
+	}
+
+	/**
+	 * @return BASE to the power of the number of this node's own characters
+	 */
+	public long ownPow() {
+		return PolyHash.BASE;
+	}
+
+	/**
+	 * @param end
+	 * @return the hash of this node's characters before index end
+	 */
+	public long ownHash(int end) {
+		return (end == 0) ? 0 : this.element;
+	}
+
+	/**
+	 * @return the number of newlines among this node's own characters
+	 */
+	public int ownLines() {
+		return (this.element == '\n') ? 1 : 0;
+	}
+
+	/**
+	 * @param end
+	 * @return the number of newlines among this node's characters before
+	 *         index end
+	 */
+	public int ownLines(int end) {
+		return (end == 0) ? 0 : this.ownLines();
+	}
+
+	/**
+	 * @param k
+	 *            from 1 to ownLines()
+	 * @return the index of the kth newline among this node's characters
+	 */
+	public int ownNewline(int k) {
+		return 0;
+	}
+
+	/**
+	 * @return the number of low surrogates among this node's own characters
+	 */
+	public int ownLows() {
+		return Character.isLowSurrogate(this.element) ? 1 : 0;
+	}
+
+	/**
+	 * @param end
+	 * @return the number of low surrogates among this node's characters
+	 *         before index end
+	 */
+	public int ownLows(int end) {
+		return (end == 0) ? 0 : this.ownLows();
+	}
+
+	/**
+	 * @param k
+	 *            from 0 to width() - ownLows() - 1
+	 * @return the index of the kth of this node's characters that is not a
+	 *         low surrogate
+	 */
+	public int ownCodePoint(int k) {
+		return 0;
+	}
+
+	/**
+	 * Recomputes the hash, newline and low surrogate counts of this subtree
+	 * from the children's. This must be called whenever a child or this node's
+	 * characters change. If a child's hash is out of date, this one is left
+	 * out of date too, for refresh() to compute.
+	 */
+	public void update() {
+		this.lines = this.left.lines + this.ownLines() + this.right.lines;
+		Sums sums = this.sums;
+		if (sums == null) {
+			return;
+		}
+		if (!this.left.hashed() || !this.right.hashed()) {
+			sums.pow = 0;
+			return;
+		}
+		Sums left = this.left.sums;
+		Sums right = this.right.sums;
+		long rest = PolyHash.add(this.ownHash(), PolyHash.multiply(this.ownPow(), right.hash));
+		sums.hash = PolyHash.add(left.hash, PolyHash.multiply(left.pow, rest));
+		sums.lows = left.lows + this.ownLows() + right.lows;
+		sums.pow = PolyHash.multiply(PolyHash.multiply(left.pow, this.ownPow()), right.pow);
+	}
+
+	/**
+	 * Recomputes the newline count of this subtree like update(), but only
+	 * marks its hash out of date, for refresh() to compute when it is needed
+	 */
+	public void updateLazily() {
+		this.lines = this.left.lines + this.ownLines() + this.right.lines;
+		this.invalidate();
+	}
+
+	/**
+	 * @return true if this subtree's hash and low surrogate count are up to
+	 *         date
+	 */
+	public boolean hashed() {
+		return this.sums != null && this.sums.pow != 0;
+	}
+
+	/**
+	 * Marks this subtree's hash out of date after a change below it
+	 */
+	public void invalidate() {
+		if (this.sums != null) {
+			this.sums.pow = 0;
+		}
+	}
+
+	/**
+	 * Brings this subtree's hash up to date if edits have marked it out of
+	 * date, visiting only the marked nodes. The first call gives every node
+	 * its sums. Nodes shared with other trees may be read by other threads at
+	 * the same time, so like an edit this only writes to nodes of the given
+	 * epoch, and copies the others first.
+	 * 
+	 * @param epoch
+	 *            the epoch of the tree being refreshed
+	 * @return this node, or the copy that took its place
+	 */
+	public Node refresh(int epoch) {
+		if (this.hashed()) {
+			return this;
+		}
+		Node n = this.own(epoch);
+		n.left = n.left.refresh(epoch);
+		n.right = n.right.refresh(epoch);
+		if (n.sums == null) {
+			n.sums = new Sums();
+		}
+		n.update();
+		return n;
+	}
+
+	/**
+	 * Counts the newlines among the first pos characters of this subtree in
+	 * time proportional to its height
+	 * 
+	 * @param pos
+	 * @return the number of newlines before position pos
+	 */
+	public int linesBefore(int pos) {
+		if (pos <= this.rank) {
+			return this.left.linesBefore(pos);
+		}
+		int width = this.width();
+		if (pos < this.rank + width) {
+			return this.left.lines + this.ownLines(pos - this.rank);
+		}
+		return this.left.lines + this.ownLines() + this.right.linesBefore(pos - this.rank - width);
+	}
+
+	/**
+	 * Finds the kth newline of this subtree in time proportional to its height
+	 * 
+	 * @param k
+	 *            from 1 to the number of newlines in this subtree
+	 * @return the position just after that newline
+	 */
+	public int afterNewline(int k) {
+		if (k <= this.left.lines) {
+			return this.left.afterNewline(k);
+		}
+		k -= this.left.lines;
+		if (k <= this.ownLines()) {
+			return this.rank + this.ownNewline(k) + 1;
+		}
+		return this.rank + this.width() + this.right.afterNewline(k - this.ownLines());
+	}
+
+	/**
+	 * Counts the low surrogates among the first pos characters of this subtree
+	 * in time proportional to its height. The subtree must be refreshed.
+	 * 
+	 * @param pos
+	 * @return the number of low surrogates before position pos
+	 */
+	public int lowsBefore(int pos) {
+		if (pos <= this.rank) {
+			return this.left.lowsBefore(pos);
+		}
+		int width = this.width();
+		if (pos < this.rank + width) {
+			return this.left.sums.lows + this.ownLows(pos - this.rank);
+		}
+		return this.left.sums.lows + this.ownLows() + this.right.lowsBefore(pos - this.rank - width);
+	}
+
+	/**
+	 * Finds where the kth code point of this subtree starts, the kth character
+	 * that is not a low surrogate, in time proportional to its height. The
+	 * subtree must be refreshed.
+	 * 
+	 * @param k
+	 *            from 0 to the number of code points in this subtree
+	 * @return the position of that code point, or the size of this subtree if
+	 *         k is the number of code points
+	 */
+	public int codePointOffset(int k) {
+		int before = this.rank - this.left.sums.lows;
+		if (k < before) {
+			return this.left.codePointOffset(k);
+		}
+		k -= before;
+		int width = this.width();
+		int own = width - this.ownLows();
+		if (k < own) {
+			return this.rank + this.ownCodePoint(k);
+		}
+		return this.rank + width + this.right.codePointOffset(k - own);
+	}
+
+	/**
+	 * Gives the hash of the first pos characters of this subtree in time
+	 * proportional to its height
+	 * 
+	 * @param pos
+	 * @return the hash of the characters before position pos
+	 */
+	public long hashBefore(int pos) {
+		if (pos <= this.rank) {
+			return this.left.hashBefore(pos);
+		}
+		int width = this.width();
+		long rest;
+		if (pos < this.rank + width) {
+			rest = this.ownHash(pos - this.rank);
 		} else {
-			this.right = new Node(n.right);
+			long right = this.right.hashBefore(pos - this.rank - width);
+			rest = PolyHash.add(this.ownHash(), PolyHash.multiply(this.ownPow(), right));
 		}
-		if (n.left instanceof Null_Node) {
-			this.left = ournullnode;
-		} else
-			this.left = new Node(n.left);
+		Sums left = this.left.sums;
+		return PolyHash.add(left.hash, PolyHash.multiply(left.pow, rest));
+	}
+
+	/**
+	 * Appends this node's characters from index start up to but not including
+	 * index end
+	 */
+	public void appendTo(StringBuilder sb, int start, int end) {
+		sb.append(this.element);
+	}
+
+	/**
+	 * Copies this node's characters from index start up to but not including
+	 * index end into dst, starting at index at
+	 */
+	public void getChars(int start, int end, char[] dst, int at) {
+		dst[at] = this.element;
 	}
 
 	public int height() {
-		if (this.balance == Code.LEFT)
+		if (this.balance == LEFT)
 			return this.left.height() + 1;
 		return this.right.height() + 1;
 	}
 
 	public int size() {
-		return this.rank + this.right.size() + 1;
+		return this.rank + this.right.size() + this.width();
 	}
 
 	/**
 	 * Goes down tree searching for place to insert ch until place is found.
 	 * Then goes back up, looking at enums. If it sees on the way up that flip
-	 * is necessary, executes rotation.
+	 * is necessary, executes rotation. Like addAt, it goes down the right
+	 * spine in a loop, keeping the path in w, and then back up it.
 	 * 
 	 * Note that using add does not produce a tree sorted based on a comparable
 	 * 
 	 * @param ch
-	 * @return the Wrap produced by Null_Node's add method
+	 * @param w
+	 *            the wrap of the tree being changed, which carries the results
+	 *            back up
+	 * @return w, holding the new root of the subtree
 	 */
-	public Wrap add(char ch) {
-		Wrap w = this.right.add(ch);
-		this.check(w, Code.RIGHT);
+	public Wrap add(char ch, Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode) {
+				w.adjust(base, 1, (ch == '\n') ? 1 : 0);
+				w.insert(ch);
+				break;
+			}
+			n = w.own(n, base);
+			if (n.right == Node.ournullnode && n instanceof ChunkNode) {
+				// the last chunk takes characters added at the end
+				ChunkNode chunk = (ChunkNode) n;
+				w.adjust(base, 1, (ch == '\n') ? 1 : 0);
+				chunk.insertChar(ch, chunk.count, w);
+				break;
+			}
+			w.push(n, RIGHT);
+			n = n.right;
+		}
+		w.climb(base);
 		return w;
 	}
 
 	/**
-	 * Adds a node with the specified char at the specified location
+	 * Adds a node with the specified char at the specified location. Goes
+	 * down in a loop, keeping the path in w, and then back up it rebalancing,
+	 * so it makes the same changes as a recursive add without the calls. The
+	 * path is only changed once the position is known to be good.
 	 * 
 	 * @param ch
 	 * @param pos
-	 * @return a Wrap containing the new root of the subtree being worked on,
-	 *         its parent, rotation count, and whether or not balance needs to
-	 *         be checked after the Wrap is returned
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, holding the new root of the subtree being worked on, its
+	 *         rotation count, and whether or not balance needs to be checked
+	 *         after it is returned
 	 */
-	public Wrap addAt(char ch, int pos) {
-		Wrap wrap;
-		if (this.rank < pos) {
-			wrap = this.right.addAt(ch, pos - this.rank - 1);
-			this.check(wrap, Code.RIGHT);
-		}
-		// if passing to the left
-		else {
-			wrap = this.left.addAt(ch, pos);
-			this.rank++;
-			this.check(wrap, Code.LEFT);
+	public Wrap addAt(char ch, int pos, Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode) {
+				if (pos != 0)
+					throw new IndexOutOfBoundsException();
+				w.adjust(base, 1, (ch == '\n') ? 1 : 0);
+				w.insert(ch);
+				break;
+			}
+			n = w.own(n, base);
+			if (n instanceof ChunkNode) {
+				// a chunk takes characters added at either end of it
+				ChunkNode chunk = (ChunkNode) n;
+				if (pos < chunk.rank) {
+					w.push(n, LEFT);
+					n = n.left;
+				} else if (pos > chunk.rank + chunk.count) {
+					w.push(n, RIGHT);
+					pos -= chunk.rank + chunk.count;
+					n = n.right;
+				} else {
+					w.adjust(base, 1, (ch == '\n') ? 1 : 0);
+					chunk.insertChar(ch, pos - chunk.rank, w);
+					break;
+				}
+			} else if (n.rank < pos) {
+				w.push(n, RIGHT);
+				pos -= n.rank + 1;
+				n = n.right;
+			}
+			// if passing to the left
+			else {
+				w.push(n, LEFT);
+				n = n.left;
+			}
 		}
-		return wrap;
+		w.climb(base);
+		return w;
 	}
 
 	/**
 	 * takes a node away from the specified location. Note: redoes balance codes
 	 * after rotations; the ones in the rotation functions are only correct if
-	 * the rotation functions are being called for insertions
+	 * the rotation functions are being called for insertions. Like addAt, goes
+	 * down in a loop and back up the path kept in w.
 	 * 
 	 * @param pos
-	 * @return a Wrap with the new head of the subtree that has been modified
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree that has been modified
 	 */
-	public Wrap delete(int pos) {
-		Wrap wrap;
-		// go right if the position is greater than this' rank
-		if (this.rank < pos) {
-			wrap = this.right.delete(pos - this.rank - 1);
-			this.check(wrap, Code.RIGHT);
-		}
-		// go left if the position is less than this' rank
-		else if (this.rank > pos) {
-			wrap = this.left.delete(pos);
-			this.rank--;
-			this.check(wrap, Code.LEFT);
-		}
-		// base case: if position == rank, we have found the node to delete
-		else {
-			if (this.right instanceof Null_Node) {
-				if (this.left instanceof Null_Node) {
-					wrap = new Wrap(Node.ournullnode);
-				} else {
-					wrap = new Wrap(this.left);
-				}
-				wrap.delVal = this.element;
-				return wrap;
+	public Wrap delete(int pos, Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode)
+				throw new IndexOutOfBoundsException();
+			n = w.own(n, base);
+			int width = n.width();
+			// go right if the position is past this' characters
+			if (n.rank + width <= pos) {
+				w.push(n, RIGHT);
+				pos -= n.rank + width;
+				n = n.right;
+			}
+			// go left if the position is less than this' rank
+			else if (n.rank > pos) {
+				w.push(n, LEFT);
+				n = n.left;
+			}
+			// base case: the position is in this node
+			else {
+				w.adjust(base, -1, (n.charAt(pos - n.rank) == '\n') ? -1 : 0);
+				n.removeChar(pos - n.rank, w);
+				break;
+			}
+		}
+		w.climb(base);
+		return w;
+	}
+
+	/**
+	 * Removes the character at the given index of this node, taking the node
+	 * out of the tree once it has no characters left
+	 * 
+	 * @param offset
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree and the removed character
+	 */
+	public Wrap removeChar(int offset, Wrap w) {
+		this.unlink(w);
+		w.delVal = this.element;
+		return w;
+	}
+
+	/**
+	 * Takes this node out of its subtree. A node with two children is replaced
+	 * by its in-order successor.
+	 * 
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree
+	 */
+	public Wrap unlink(Wrap w) {
+		if (this.right instanceof Null_Node) {
+			return w.set(this.left, Change.DEL);
+		}
+		this.right.removeFirst(w);
+		Node successor = w.removed;
+		successor.left = this.left;
+		successor.right = this.right;
+		successor.rank = this.rank;
+		successor.balance = this.balance;
+		successor.check(w, RIGHT);
+		return w;
+	}
+
+	/**
+	 * Takes the leftmost node out of this subtree, keeping it whole
+	 * 
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree and the removed node
+	 */
+	public Wrap removeFirst(Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			n = w.own(n, base);
+			if (n.left == Node.ournullnode) {
+				w.adjust(base, -n.width(), -n.ownLines());
+				w.set(n.right, Change.DEL);
+				w.removed = n;
+				break;
+			}
+			w.push(n, LEFT);
+			n = n.left;
+		}
+		w.climb(base);
+		return w;
+	}
+
+	/**
+	 * Takes the rightmost node out of this subtree, keeping it whole
+	 * 
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree and the removed node
+	 */
+	public Wrap removeLast(Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			n = w.own(n, base);
+			if (n.right == Node.ournullnode) {
+				w.adjust(base, 0, -n.ownLines());
+				w.set(n.left, Change.DEL);
+				w.removed = n;
+				break;
+			}
+			w.push(n, RIGHT);
+			n = n.right;
+		}
+		w.climb(base);
+		return w;
+	}
+
+	/**
+	 * Takes the node holding position pos out of this subtree, keeping it
+	 * whole, the way delete goes down to it
+	 * 
+	 * @param pos
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree and the removed node
+	 */
+	public Wrap removeAt(int pos, Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode)
+				throw new IndexOutOfBoundsException();
+			n = w.own(n, base);
+			int width = n.width();
+			if (n.rank + width <= pos) {
+				w.push(n, RIGHT);
+				pos -= n.rank + width;
+				n = n.right;
+			} else if (n.rank > pos) {
+				w.push(n, LEFT);
+				n = n.left;
+			} else {
+				w.adjust(base, -width, -n.ownLines());
+				n.unlink(w);
+				w.removed = n;
+				break;
+			}
+		}
+		w.climb(base);
+		return w;
+	}
+
+	/**
+	 * Gives the characters of chunk from to the chunk holding position pos,
+	 * before its own if front is set and after them otherwise. The two must
+	 * fit in one chunk.
+	 * 
+	 * @param pos
+	 * @param from
+	 *            a chunk no longer in this subtree
+	 * @param front
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree
+	 */
+	public Wrap absorbAt(int pos, ChunkNode from, boolean front, Wrap w) {
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode)
+				throw new IndexOutOfBoundsException();
+			n = w.own(n, base);
+			int width = n.width();
+			if (n.rank + width <= pos) {
+				w.push(n, RIGHT);
+				pos -= n.rank + width;
+				n = n.right;
+			} else if (n.rank > pos) {
+				w.push(n, LEFT);
+				n = n.left;
+			} else {
+				w.adjust(base, from.count, from.ownLines());
+				((ChunkNode) n).absorb(from, front);
+				w.set(n, Change.NONE);
+				break;
 			}
-			wrap = this.right.delete(0);
-			this.check(wrap, Code.RIGHT);
+		}
+		w.climb(base);
+		return w;
+	}
 
-			// switch this' element with wrap's element (its successor element)
-			char retVal = this.element;
-			this.element = wrap.delVal;
-			wrap.delVal = retVal;
+	/**
+	 * Puts n in as the leftmost node of this subtree, going down the left
+	 * spine in a loop and back up the path kept in w
+	 * 
+	 * @param n
+	 *            a node with no children
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new head of the subtree
+	 */
+	public Wrap insertFirst(Node n, Wrap w) {
+		int base = w.depth;
+		Node m = this;
+		while (m != Node.ournullnode) {
+			m = w.own(m, base);
+			w.push(m, LEFT);
+			m = m.left;
 		}
-		return wrap;
+		w.adjust(base, n.width(), n.ownLines());
+		w.set(n, Change.INS);
+		w.climb(base);
+		return w;
 	}
 
 	/**
@@ -250,14 +1128,27 @@ public class Node {
 	}
 
 	/**
-	 * Helper function to get an inorder string of this tree
+	 * Helper function to get an inorder string of this tree, keeping the nodes
+	 * still to be appended on a stack instead of recursing
 	 * 
 	 * @param sb
 	 */
 	public void toString(StringBuilder sb) {
-		this.left.toString(sb);
-		sb.append(this.element);
-		this.right.toString(sb);
+		Node[] stack = new Node[this.height() + 1];
+		int depth = 0;
+		Node n = this;
+		while (true) {
+			while (n != Node.ournullnode) {
+				stack[depth++] = n;
+				n = n.left;
+			}
+			if (depth == 0) {
+				return;
+			}
+			n = stack[--depth];
+			n.appendTo(sb, 0, n.width());
+			n = n.right;
+		}
 	}
 
 	/****
@@ -267,9 +1158,9 @@ public class Node {
 	 * @return
 	 */
 	public void toDebugString(StringBuilder sb) {
-		sb.append(this.element);
+		this.appendTo(sb, 0, this.width());
 		sb.append(this.rank);
-		sb.append(this.balance.toString());
+		sb.append(Code.of(this.balance).toString());
 		sb.append(", ");
 		this.left.toDebugString(sb);
 		this.right.toDebugString(sb);
@@ -282,21 +1173,73 @@ public class Node {
 	 * @return specified char
 	 */
 	public char get(int pos) {
-		// if the position is greater than the rank of this node,
-		// the desired char is on the right of this node
-		if (this.rank < pos) {
-			// subtract the rank of this to keep the position updated
-			return this.right.get(pos - this.rank - 1);
-		}
-		// if the position is less than the rank of this node,
-		// the desired char is on the left of this node
-		else if (this.rank > pos) {
-			// subtract the rank of this to keep the position updated
-			return this.left.get(pos);
-		}
-		// if the rank is the position, return this node's character
-		else
-			return this.element;
+		Node n = this;
+		while (n != Node.ournullnode) {
+			int width = n.width();
+			// if the position is past the characters of this node, the
+			// desired char is on the right; subtract them to keep the
+			// position updated
+			if (n.rank + width <= pos) {
+				pos -= n.rank + width;
+				n = n.right;
+			}
+			// if the position is less than the rank of this node,
+			// the desired char is on the left of this node
+			else if (n.rank > pos) {
+				n = n.left;
+			}
+			// otherwise the position is in this node
+			else
+				return n.charAt(pos - n.rank);
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Finds the node holding position pos, walking the same way get does
+	 * 
+	 * @param pos
+	 * @return the node
+	 */
+	public Node nodeAt(int pos) {
+		Node n = this;
+		while (n != Node.ournullnode) {
+			int width = n.width();
+			if (n.rank + width <= pos) {
+				pos -= n.rank + width;
+				n = n.right;
+			} else if (n.rank > pos) {
+				n = n.left;
+			} else {
+				return n;
+			}
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Finds how far down the node holding position pos is, walking the same
+	 * way get does
+	 * 
+	 * @param pos
+	 * @return the number of nodes above it in this subtree
+	 */
+	public int depthOf(int pos) {
+		Node n = this;
+		int depth = 0;
+		while (n != Node.ournullnode) {
+			int width = n.width();
+			if (n.rank + width <= pos) {
+				pos -= n.rank + width;
+				n = n.right;
+			} else if (n.rank > pos) {
+				n = n.left;
+			} else {
+				return depth;
+			}
+			depth++;
+		}
+		throw new IndexOutOfBoundsException();
 	}
 
 	/**
@@ -308,64 +1251,64 @@ public class Node {
 	 * @param end
 	 */
 	public void get(StringBuilder sb, int start, int end) {
-		if (start < this.rank && this.rank < end) {
-			this.left.get(sb, start, this.rank - 1);
-			sb.append(this.element);
-			this.right.get(sb, 0, end - this.rank - 1);
-		} else if (start < this.rank) {
-			if (this.rank == end) {
-				this.left.get(sb, start, end - 1);
-				sb.append(this.element);
-			} else
-				this.left.get(sb, start, end);
-		} else if (this.rank < end) {
-			if (this.rank == start) {
-				sb.append(this.element);
-				this.right.get(sb, 0, end - this.rank - 1);
-			} else
-				this.right.get(sb, start - this.rank - 1, end - this.rank - 1);
-		} else {
-			sb.append(this.element);
+		int width = this.width();
+		if (start < this.rank) {
+			this.left.get(sb, start, Math.min(end, this.rank - 1));
+		}
+		if (start < this.rank + width && this.rank <= end) {
+			this.appendTo(sb, Math.max(start - this.rank, 0), Math.min(end - this.rank + 1, width));
+		}
+		if (this.rank + width <= end) {
+			this.right.get(sb, Math.max(start - this.rank - width, 0), end - this.rank - width);
 		}
 	}
 
-	public Wrap check(Wrap w, Code dir) {
+	public Wrap check(Wrap w, byte dir) {
 		if (!w.change.check()) {
 			this.set(dir, w.n);
+			this.update();
 			w.n = this;
 			return w;
 		}
+		return this.rebalance(w, dir);
+	}
 
+	/**
+	 * The rest of check, for when the subtree in direction dir changed height.
+	 * Kept apart so that the common case above stays small enough to inline.
+	 */
+	private Wrap rebalance(Wrap w, byte dir) {
 		// d is the direction the subtree grew / direction it did not shrink
-		Code d = (w.change == Change.INS) ? dir : dir.not();
+		byte d = (w.change == Change.INS) ? dir : not(dir);
 		this.set(dir, w.n);
 		Node b = this.get(d);
 
 		// check if rotation is needed
 		if (this.balance == d) {
 			// rotate, deals with balance and rank when rotating
-			if (b.balance == d.not()) {
+			if (b.balance == not(d)) {
 				// double rotate
-				this.doubleRotate(w, d.not());
+				this.doubleRotate(w, not(d));
 			} else {
 				// single rotate
-				this.singleRotate(w, d.not());
+				this.singleRotate(w, not(d));
 			}
 		}
 		// check balance codes and rank if not rotating
 		else {
 			// check balance
-			if (this.balance == d.not()) {
-				this.balance = Code.SAME;
+			if (this.balance == not(d)) {
+				this.balance = SAME;
 				if (w.change == Change.INS)
 					w.change = Change.NONE;
-			} else { // this.balance == Code.SAME
+			} else { // this.balance == SAME
 				this.balance = d;
 				if (w.change == Change.DEL)
 					w.change = Change.NONE;
 			}
 			// rank is dealt with in add or del
 			// updates wrap and children
+			this.update();
 			w.n = this;
 		}
 		return w;
@@ -378,29 +1321,34 @@ public class Node {
 	 * @param w
 	 * @param dir
 	 */
-	public void singleRotate(Wrap w, Code dir) {
-		Node b = this.get(dir.not());
+	public void singleRotate(Wrap w, byte dir) {
+		Node b = w.own(this.get(not(dir)));
 		// set children to rotate
-		this.set(dir.not(), b.get(dir));
+		this.set(not(dir), b.get(dir));
 		b.set(dir, this);
 		// set new balances
-		if (w.change == Change.INS || b.balance == dir.not()) {
-			this.balance = Code.SAME;
-			b.balance = Code.SAME;
+		if (b.balance != SAME) {
+			this.balance = SAME;
+			b.balance = SAME;
+			if (w.change == Change.INS)
+				w.change = Change.NONE;
 		} else {
-			this.balance = dir.not();
+			// only after a deletion, or a concatenation that pasted b in
+			this.balance = not(dir);
 			b.balance = dir;
-			w.change = Change.NONE;
+			if (w.change == Change.DEL)
+				w.change = Change.NONE;
 		}
 		// correct wrap values
 		w.n = b;
-		if (w.change == Change.INS)
-			w.change = Change.NONE;
 		// check rank
-		if (dir == Code.LEFT)
-			b.rank += this.rank + 1;
+		if (dir == LEFT)
+			b.rank += this.rank + this.width();
 		else
-			this.rank -= b.rank + 1;
+			this.rank -= b.rank + b.width();
+		// this is now b's child
+		this.update();
+		b.update();
 		// update rotations
 		w.rotations++;
 	}
@@ -412,42 +1360,47 @@ public class Node {
 	 * @param w
 	 * @param dir
 	 */
-	public void doubleRotate(Wrap w, Code dir) {
-		Node b = this.get(dir.not());
-		Node c = b.get(dir);
+	public void doubleRotate(Wrap w, byte dir) {
+		Node b = w.own(this.get(not(dir)));
+		Node c = w.own(b.get(dir));
 		// set children to rotate
-		this.set(dir.not(), c.get(dir));
-		b.set(dir, c.get(dir.not()));
-		c.set(dir.not(), b);
+		this.set(not(dir), c.get(dir));
+		b.set(dir, c.get(not(dir)));
+		c.set(not(dir), b);
 		c.set(dir, this);
 		// set new balances
-		if (c.balance == Code.SAME) {
-			b.balance = Code.SAME;
-			this.balance = Code.SAME;
-		} else if (c.balance == dir.not()) {
-			b.balance = Code.SAME;
+		if (c.balance == SAME) {
+			b.balance = SAME;
+			this.balance = SAME;
+		} else if (c.balance == not(dir)) {
+			b.balance = SAME;
 			this.balance = dir;
-			c.balance = Code.SAME;
+			c.balance = SAME;
 		} else { // c.balance == dir
-			this.balance = Code.SAME;
-			b.balance = dir.not();
-			c.balance = Code.SAME;
+			this.balance = SAME;
+			b.balance = not(dir);
+			c.balance = SAME;
 		}
 		// correct wrap values
 		w.n = c;
 		if (w.change == Change.INS)
 			w.change = Change.NONE;
 		// check rank
-		if (dir == Code.RIGHT) {
-			this.rank -= c.rank + b.rank + 2;
-			c.rank += b.rank + 1;
+		if (dir == RIGHT) {
+			this.rank -= c.rank + c.width() + b.rank + b.width();
+			c.rank += b.rank + b.width();
 		} else {
 
-			b.rank -= c.rank + 1;
-			c.rank += this.rank + 1;
+			b.rank -= c.rank + c.width();
+			c.rank += this.rank + this.width();
 		}
+		// this and b are now c's children
+		this.update();
+		b.update();
+		c.update();
 		// update rotations
 		w.rotations += 2;
+		w.doubleRotations++;
 	}
 
 	/**
@@ -456,10 +1409,10 @@ public class Node {
 	 * @param dir
 	 * @return the node at the given direction
 	 */
-	public Node get(Code dir) {
-		if (dir == Code.RIGHT)
+	public Node get(byte dir) {
+		if (dir == RIGHT)
 			return this.right;
-		if (dir == Code.LEFT)
+		if (dir == LEFT)
 			return this.left;
 		throw new NoSuchElementException();
 	}
@@ -470,122 +1423,482 @@ public class Node {
 	 * @param dir
 	 * @param node
 	 */
-	public void set(Code dir, Node node) {
-		if (dir == Code.RIGHT) {
+	public void set(byte dir, Node node) {
+		if (dir == RIGHT) {
 			this.right = node;
-		} else if (dir == Code.LEFT) {
+		} else if (dir == LEFT) {
 			this.left = node;
 		} else
 			throw new NoSuchElementException();
 	}
 
-	public Wrap concatenate(Node other) {
-		return concatenate(other, null);
+	public Wrap concatenate(Node other, Wrap w) {
+		return concatenate(other, null, w);
 	}
 
 	/**
-	 * provides the information for concatenateHelper to concatenate, then calls
-	 * concatenateHelper
+	 * provides the information for join to concatenate, then calls join. If
+	 * key is null, the last node of this tree or the first node of other is
+	 * taken out to join the two.
 	 * 
 	 * @param other
-	 * @return
+	 * @param key
+	 *            a node with no children to put between this and other, or
+	 *            null
+	 * @param w
+	 *            the wrap of the tree being changed, which also counts the
+	 *            rotations done in taking out the key
+	 * @return w
 	 */
-	public Wrap concatenate(Node other, Character ch) {
-		Wrap w;
-		Node o = other;
-		Character c = ch;
-		if (other instanceof Null_Node) {
-			w = new Wrap(this);
-			w.change = Change.NONE;
-			return w;
+	public Wrap concatenate(Node other, Node key, Wrap w) {
+		return this.concatenate(this.height(), this.size(), key, other, other.height(), w);
+	}
+
+	/**
+	 * Concatenates as above, given the heights of the two trees and the size
+	 * of this one, so that none of them is walked down a spine to find
+	 * 
+	 * @param leftHeight
+	 *            height of this tree
+	 * @param leftSize
+	 *            number of characters in this tree
+	 * @param key
+	 *            a node with no children to put between this and other, or
+	 *            null
+	 * @param other
+	 * @param rightHeight
+	 *            height of other
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the joined tree and its height
+	 */
+	public Wrap concatenate(int leftHeight, int leftSize, Node key, Node other, int rightHeight, Wrap w) {
+		if (other == Node.ournullnode) {
+			w.height = leftHeight;
+			return w.set(this, Change.NONE);
 		}
-		int diffHeight = this.height() - other.height();
-		if (diffHeight < 0) {
-			if (ch == null) {
-				w = this.delete(this.size() - 1);
+		Node l = this;
+		Node r = other;
+		Node k = key;
+		if (key == null) {
+			// take the key from the shorter tree
+			if (leftHeight < rightHeight) {
+				this.removeLast(w);
+				l = w.n;
+				leftSize -= w.removed.width();
 				if (w.change == Change.DEL)
-					diffHeight--;
-				c = w.delVal;
-				o = w.n;
-			}
-			w = other.concatenateHelper(-diffHeight, Code.LEFT, c, o, o.size());
-		} else {
-			if (ch == null) {
-				w = other.delete(0);
+					leftHeight--;
+			} else {
+				other.removeFirst(w);
+				r = w.n;
 				if (w.change == Change.DEL)
-					diffHeight++;
-				c = w.delVal;
-				o = w.n;
+					rightHeight--;
 			}
-			w = this.concatenateHelper(diffHeight, Code.RIGHT, c, o, o.size());
+			k = w.removed;
 		}
+		Node.join(l, leftHeight, leftSize, k, r, rightHeight, w);
+		w.height = Math.max(leftHeight, rightHeight) + ((w.change == Change.INS) ? 1 : 0);
 		return w;
 	}
 
+	/**
+	 * Makes one tree of l, then key, then r, in time proportional to the
+	 * difference of their heights. The returned Wrap's change is INS if the
+	 * new tree is taller than both l and r.
+	 * 
+	 * @param l
+	 * @param leftHeight
+	 *            height of l
+	 * @param leftSize
+	 *            number of characters in l
+	 * @param key
+	 *            a node taken out of any tree
+	 * @param r
+	 * @param rightHeight
+	 *            height of r
+	 * @param w
+	 *            the wrap of the tree being changed, whose epoch key must
+	 *            belong to
+	 * @return w, with the root of the joined tree
+	 */
+	public static Wrap join(Node l, int leftHeight, int leftSize, Node key, Node r, int rightHeight, Wrap w) {
+		if (leftHeight < rightHeight) {
+			return r.concatenateHelper(rightHeight - leftHeight, LEFT, key, l, leftSize, w);
+		}
+		return l.concatenateHelper(leftHeight - rightHeight, RIGHT, key, r, leftSize, w);
+	}
+
 	/**
 	 * finds the node p needed in concatenation
 	 * 
 	 * @param height
-	 *            of the smaller tree
+	 *            of this subtree minus the height of v
 	 * @param di,
 	 *            whether to go left or right
-	 * @param q,
+	 * @param key,
+	 *            the node that joins this subtree and v
+	 * @param v,
 	 *            root of subtree getting pasted in
+	 * @param leftSize,
+	 *            the number of characters that go left of key: those in v
+	 *            going left, or those in this subtree going right
+	 * @param w
+	 *            the wrap of the tree being changed
 	 * 
-	 * @return node p
+	 * @return w, with node p
 	 */
-	public Wrap concatenateHelper(int height, Code dir, char ch, Node v, int insertedSize) {
-		Wrap w;
-		Node leftSubtree = (dir == Code.RIGHT) ? this : v;
-		Node rightSubtree = (dir == Code.RIGHT) ? v : this;
-		// base case
-		if (height == 1 && this.balance == dir.not()) {
-			w = this.paste(leftSubtree, ch, rightSubtree, dir.not());
-			w.inserted = v.size();
-			return w;
-		} else if (height == 0) {
-			w = this.paste(leftSubtree, ch, rightSubtree, Code.SAME);
-			return w;
+	public Wrap concatenateHelper(int height, byte dir, Node key, Node v, int leftSize, Wrap w) {
+		int base = w.depth;
+		// every step goes the same way, so ranks all grow by the same amount
+		int delta = leftSize + key.width();
+		Node n = this;
+		while (true) {
+			Node leftSubtree = (dir == RIGHT) ? n : v;
+			Node rightSubtree = (dir == RIGHT) ? v : n;
+			// base case
+			if (n == Node.ournullnode || height == 0) {
+				w.adjust(base, delta, key.ownLines() + v.lines);
+				n.paste(leftSubtree, key, rightSubtree, SAME, leftSize, w);
+				break;
+			} else if (height == 1 && n.balance == not(dir)) {
+				w.adjust(base, delta, key.ownLines() + v.lines);
+				n.paste(leftSubtree, key, rightSubtree, not(dir), leftSize, w);
+				break;
+			}
+			n = w.own(n, base);
+			if (dir == RIGHT)
+				leftSize -= n.rank + n.width();
+			height -= (n.balance == SAME || n.balance == dir) ? 1 : 2;
+			w.push(n, dir);
+			n = n.get(dir);
 		}
-		if (this.balance == Code.SAME || this.balance == dir) {
-			w = this.get(dir).concatenateHelper(height - 1, dir, ch, v, insertedSize);
+		w.climb(base);
+		return w;
+	}
+
+	/**
+	 * gets called on node p
+	 * 
+	 * @param l
+	 *            left subtree of the pasted node
+	 * @param key
+	 *            the node to paste in
+	 * @param r
+	 *            right subtree of the pasted node
+	 * @param c
+	 *            balance code of the pasted node
+	 * @param leftSize
+	 *            number of characters in l
+	 * @param w
+	 *            the wrap of the tree being changed, whose epoch key must
+	 *            belong to
+	 * @return w
+	 */
+	public Wrap paste(Node l, Node key, Node r, byte c, int leftSize, Wrap w) {
+		w.set(key, Change.INS);
+		key.left = l;
+		key.right = r;
+		key.balance = c;
+		key.rank = leftSize;
+		key.update();
+		return w;
+	}
 
+	/**
+	 * Splits this tree so that the first pos characters end up in s.left and
+	 * the rest in s.right, in time proportional to the height of this tree.
+	 * This tree is taken apart to build them. It goes down to the split point
+	 * in a loop, keeping the path in w, and then back up it, joining each node
+	 * on the path onto the half that doesn't hold the split point.
+	 * 
+	 * @param pos
+	 * @param height
+	 *            the height of this tree
+	 * @param w
+	 *            the wrap of the tree being split
+	 * @return the two trees, their heights, and the rotations done
+	 */
+	public Split split(int pos, int height, Wrap w) {
+		Split s = new Split();
+		s.wrap = w;
+		int base = w.depth;
+		Node n = this;
+		while (true) {
+			if (n == Node.ournullnode) {
+				if (pos != 0)
+					throw new IndexOutOfBoundsException();
+				s.set(n, -1, n, -1);
+				break;
+			}
+			// the nodes on the path are taken apart, so a copy needn't be
+			// put in its parent
+			n = w.own(n);
+			int width = n.width();
+			if (pos < n.rank) {
+				w.push(n, LEFT);
+				height = (n.balance == RIGHT) ? height - 2 : height - 1;
+				n = n.left;
+			} else if (pos > n.rank + width) {
+				w.push(n, RIGHT);
+				pos -= n.rank + width;
+				height = (n.balance == LEFT) ? height - 2 : height - 1;
+				n = n.right;
+			} else {
+				n.splitAt(pos, height, s);
+				break;
+			}
+		}
+		while (w.depth > base) {
+			// the joins below push onto the path above here, where the nodes
+			// already joined were
+			w.depth--;
+			Node p = w.path[w.depth];
+			if (w.lefts[w.depth]) {
+				height += (p.balance == RIGHT) ? 2 : 1;
+				int rightHeight = (p.balance == LEFT) ? height - 2 : height - 1;
+				Node.join(s.right, s.rightHeight, p.rank - pos, p, p.right, rightHeight, w);
+				s.rightHeight = Math.max(s.rightHeight, rightHeight);
+				s.right = w.n;
+				if (w.change == Change.INS)
+					s.rightHeight++;
+			} else {
+				height += (p.balance == LEFT) ? 2 : 1;
+				int leftHeight = (p.balance == RIGHT) ? height - 2 : height - 1;
+				pos += p.rank + p.width();
+				Node.join(p.left, leftHeight, p.rank, p, s.left, s.leftHeight, w);
+				s.leftHeight = Math.max(s.leftHeight, leftHeight);
+				s.left = w.n;
+				if (w.change == Change.INS)
+					s.leftHeight++;
+			}
+		}
+		s.rotations = w.rotations;
+		return s;
+	}
+
+	/**
+	 * Splits this subtree into s where the split point is at the start, the
+	 * end or inside this node, joining this node onto the half that doesn't
+	 * hold the split point
+	 */
+	private void splitAt(int pos, int height, Split s) {
+		int width = this.width();
+		int leftHeight = (this.balance == RIGHT) ? height - 2 : height - 1;
+		int rightHeight = (this.balance == LEFT) ? height - 2 : height - 1;
+		Node l = this.left;
+		Node r = this.right;
+		Wrap w = s.wrap;
+		if (pos == this.rank) {
+			s.set(l, leftHeight, Node.ournullnode, -1);
+			Node.join(s.right, s.rightHeight, 0, this, r, rightHeight, w);
+			s.rightHeight = Math.max(s.rightHeight, rightHeight);
+			s.right = w.n;
+			if (w.change == Change.INS)
+				s.rightHeight++;
+		} else if (pos == this.rank + width) {
+			s.set(Node.ournullnode, -1, r, rightHeight);
+			Node.join(l, leftHeight, this.rank, this, s.left, s.leftHeight, w);
+			s.leftHeight = Math.max(s.leftHeight, leftHeight);
+			s.left = w.n;
+			if (w.change == Change.INS)
+				s.leftHeight++;
 		} else {
-			w = this.get(dir).concatenateHelper(height - 2, dir, ch, v, insertedSize);
+			// the split point is inside this chunk
+			Node tail = this.splitOff(pos - this.rank);
+			w.allocated++;
+			Node.join(l, leftHeight, this.rank, this, Node.ournullnode, -1, w);
+			s.set(w.n, (w.change == Change.INS) ? leftHeight + 1 : leftHeight, r, rightHeight);
+			Node.join(Node.ournullnode, -1, 0, tail, r, rightHeight, w);
+			s.right = w.n;
+			if (w.change == Change.INS)
+				s.rightHeight++;
 		}
-		if (dir == Code.LEFT)
-			this.rank += insertedSize;
-		this.check(w, dir);
-		w.change = Change.INS;
-		return w;
 	}
 
 	/**
-	 * gets called on node p
+	 * Makes edits[from, to) in the subtree n in one pass. The edits are sorted
+	 * and don't overlap, and their ranges lie within the subtree. Subtrees
+	 * that no edit reaches are kept as they are; each node an edit does reach
+	 * is joined back onto its edited subtrees, or replaced by its edited
+	 * characters, on the way back up, so that the tree is rebalanced once
+	 * along each path the batch touches.
 	 * 
+	 * @param n
 	 * @param height
-	 *            of smaller tree pasted into larger one
-	 * @param dir,
-	 *            direction left or right
-	 * @param pasted
-	 *            q, root of subtree getting pasted in
-	 * @return
+	 *            the height of n
+	 * @param offset
+	 *            the position of n's first character in the tree before the
+	 *            batch, which the edits' positions are given in
+	 * @param edits
+	 *            the whole batch; entries may be swapped for a while, but
+	 *            are put back
+	 * @param chunkSize
+	 *            the most characters a new node may hold
+	 * @param w
+	 *            the wrap of the tree being changed
+	 * @return w, with the new subtree and its height
 	 */
-	public Wrap paste(Node l, char rootChar, Node r, Code c) {
-		Wrap w = new Wrap(rootChar);
-		w.n.left = l;
-		w.n.right = r;
-		w.n.balance = c;
-		w.n.rank = l.size();
+	static Wrap batch(Node n, int height, int offset, Edit[] edits, int from, int to, int chunkSize, Wrap w) {
+		if (from == to) {
+			w.n = n;
+			w.height = height;
+			return w;
+		}
+		if (n == Node.ournullnode) {
+			// only inserts can reach an empty subtree
+			StringBuilder sb = new StringBuilder();
+			for (int i = from; i < to; i++) {
+				sb.append(edits[i].getText());
+			}
+			Node m = Node.addFromString(sb, chunkSize);
+			w.n = m;
+			w.height = m.height();
+			return w;
+		}
+		int start = offset + n.rank;
+		int end = start + n.width();
+		// edits before this node's characters, then those that reach them,
+		// then those after
+		int middle = from;
+		while (middle < to && Node.end(edits[middle]) <= start) {
+			middle++;
+		}
+		int after = middle;
+		while (after < to && edits[after].getPosition() < end) {
+			after++;
+		}
+		Node left = n.left;
+		Node right = n.right;
+		int leftHeight = (n.balance == RIGHT) ? height - 2 : height - 1;
+		int rightHeight = (n.balance == LEFT) ? height - 2 : height - 1;
+		StringBuilder chars = null;
+		if (middle < after) {
+			chars = new StringBuilder();
+			int at = start;
+			for (int i = middle; i < after; i++) {
+				Edit e = edits[i];
+				int cut = Math.max(e.getPosition(), start);
+				if (at < cut) {
+					n.appendTo(chars, at - start, cut - start);
+				}
+				chars.append(e.getText());
+				at = Math.max(at, Math.min(Node.end(e), end));
+			}
+			if (at < end) {
+				n.appendTo(chars, at - start, end - start);
+			}
+		}
+
+		// the first edit reaching this node may start in the left subtree,
+		// and the last may end in the right one; their subtrees see only
+		// deletes of the characters they hold
+		int leftTo = middle;
+		Edit first = null;
+		if (middle < after && edits[middle].getPosition() < start) {
+			first = edits[middle];
+			edits[middle] = Edit.delete(first.getPosition(), start - first.getPosition());
+			leftTo++;
+		}
+		int leftSize = n.rank + Node.delta(edits, from, leftTo);
+		Node.batch(left, leftHeight, offset, edits, from, leftTo, chunkSize, w);
+		Node l = w.n;
+		leftHeight = w.height;
+		if (first != null) {
+			edits[middle] = first;
+		}
+		int rightFrom = after;
+		Edit last = null;
+		if (middle < after && Node.end(edits[after - 1]) > end) {
+			last = edits[after - 1];
+			edits[after - 1] = Edit.delete(end, Node.end(last) - end);
+			rightFrom--;
+		}
+		Node.batch(right, rightHeight, end, edits, rightFrom, to, chunkSize, w);
+		Node r = w.n;
+		rightHeight = w.height;
+		if (last != null) {
+			edits[after - 1] = last;
+		}
+
+		if (chars == null) {
+			// a subtree may come back with the same root but a new height,
+			// so this node is joined back on either way
+			return Node.joined(l, leftHeight, leftSize, w.own(n), r, rightHeight, w);
+		}
+		if (chars.length() == 0) {
+			return Node.joined(l, leftHeight, leftSize, r, rightHeight, w);
+		}
+		Node m = Node.addFromString(chars, chunkSize);
+		if (m.left == Node.ournullnode && m.right == Node.ournullnode) {
+			m.epoch = w.epoch;
+			return Node.joined(l, leftHeight, leftSize, m, r, rightHeight, w);
+		}
+		Node.joined(l, leftHeight, leftSize, m, m.height(), w);
+		return Node.joined(w.n, w.height, leftSize + chars.length(), r, rightHeight, w);
+	}
+
+	/**
+	 * @return the position just past the characters e replaces
+	 */
+	private static int end(Edit e) {
+		return e.getPosition() + e.getLength();
+	}
+
+	/**
+	 * @return how many characters edits[from, to) add, less those they take
+	 *         out
+	 */
+	static int delta(Edit[] edits, int from, int to) {
+		int delta = 0;
+		for (int i = from; i < to; i++) {
+			delta += edits[i].getText().length() - edits[i].getLength();
+		}
+		return delta;
+	}
+
+	/**
+	 * Joins l, key and r as join does, and also gives the height of the
+	 * result
+	 * 
+	 * @return w, with the joined tree and its height
+	 */
+	private static Wrap joined(Node l, int leftHeight, int leftSize, Node key, Node r, int rightHeight, Wrap w) {
+		Node.join(l, leftHeight, leftSize, key, r, rightHeight, w);
+		w.height = Math.max(leftHeight, rightHeight) + ((w.change == Change.INS) ? 1 : 0);
 		return w;
 	}
 
+	/**
+	 * Concatenates l and r, either of which may be empty
+	 * 
+	 * @return w, with the joined tree and its height
+	 */
+	private static Wrap joined(Node l, int leftHeight, int leftSize, Node r, int rightHeight, Wrap w) {
+		if (l == Node.ournullnode) {
+			w.n = r;
+			w.height = rightHeight;
+			return w;
+		}
+		return l.concatenate(leftHeight, leftSize, null, r, rightHeight, w);
+	}
+
+	/**
+	 * Moves the characters of this node from offset on into a new node. Only
+	 * a chunk holds more than one character, so only a chunk can do this.
+	 * 
+	 * @param offset
+	 * @return the new node, with no children
+	 */
+	public Node splitOff(int offset) {
+		throw new IllegalStateException();
+	}
+
 	public int getRank() {
 		return this.rank;
 	}
 
 	public Code getBalance() {
-		return this.balance;
+		return Code.of(this.balance);
 	}
 
 	public char getElement() {
@@ -611,6 +1924,6 @@ public class Node {
 	}
 
 	public int slowSize() {
-		return this.right.slowSize() + this.left.slowSize() + 1;
+		return this.right.slowSize() + this.left.slowSize() + this.width();
 	}
 }
\ No newline at end of file
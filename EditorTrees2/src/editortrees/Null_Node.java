@@ -8,53 +8,72 @@ public class Null_Node extends Node {
 
 	public Null_Node(char ch) {
 		super(ch);
+		this.sums = new Sums();
+		this.sums.pow = 1;
+		this.lines = 0;
 	}
 
 	@Override
-	public Wrap add(char ch) {
-		return new Wrap(ch);
+	public void update() {
+		return;
 	}
 
 	@Override
-	public void toString(StringBuilder sb) {
-		sb.append("");
+	public void invalidate() {
+		return;
 	}
 
 	@Override
-	public void toDebugString(StringBuilder sb) {
-		return;
+	public long hashBefore(int pos) {
+		if (pos != 0)
+			throw new IndexOutOfBoundsException();
+		return 0;
 	}
 
 	@Override
-	public int slowHeight() {
-		return -1;
+	public int linesBefore(int pos) {
+		if (pos != 0)
+			throw new IndexOutOfBoundsException();
+		return 0;
 	}
 
 	@Override
-	public int slowSize() {
+	public int afterNewline(int k) {
+		throw new IndexOutOfBoundsException();
+	}
+
+	@Override
+	public int lowsBefore(int pos) {
+		if (pos != 0)
+			throw new IndexOutOfBoundsException();
 		return 0;
 	}
 
 	@Override
-	public Wrap delete(int pos) {
-		throw new IndexOutOfBoundsException();
+	public int codePointOffset(int k) {
+		if (k != 0)
+			throw new IndexOutOfBoundsException();
+		return 0;
 	}
 
 	@Override
-	public int height() {
+	public void toDebugString(StringBuilder sb) {
+		return;
+	}
+
+	@Override
+	public int slowHeight() {
 		return -1;
 	}
 
 	@Override
-	public Wrap addAt(char ch, int pos) {
-		if (pos != 0)
-			throw new IndexOutOfBoundsException();
-		return new Wrap(ch);
+	public int slowSize() {
+		return 0;
 	}
 
 	@Override
-	public char get(int pos) {
-		throw new IndexOutOfBoundsException();
+	public int height() {
+		return -1;
 	}
 
 	@Override
@@ -68,8 +87,17 @@ public class Null_Node extends Node {
 	}
 
 	@Override
-	public Wrap concatenateHelper(int height, Code dir, char ch, Node v, int size) {
-		Wrap w = new Wrap(ch);
-		return w;
+	public Node own(int epoch) {
+		return this;
+	}
+
+	@Override
+	public int width() {
+		return 0;
+	}
+
+	@Override
+	public Node deepCopy() {
+		return this;
 	}
 }
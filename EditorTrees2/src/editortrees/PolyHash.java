@@ -0,0 +1,78 @@
+package editortrees;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Arithmetic for the polynomial hashes nodes keep of their subtrees. The hash
+ * of s is the sum of s[i] * BASE^i modulo the prime 2^61 - 1, so the hash of
+ * a concatenation is hash(a) + BASE^|a| * hash(b). The base is picked at
+ * random when the class loads, which makes collisions hard to arrange.
+ */
+final class PolyHash {
+
+	static final long MOD = (1L << 61) - 1;
+	static final long BASE = ThreadLocalRandom.current().nextLong(1L << 16, MOD);
+	static final long INVERSE = PolyHash.power(BASE, MOD - 2);
+
+	private PolyHash() {
+	}
+
+	static long add(long a, long b) {
+		long sum = a + b;
+		return (sum >= MOD) ? sum - MOD : sum;
+	}
+
+	static long subtract(long a, long b) {
+		long difference = a - b;
+		return (difference < 0) ? difference + MOD : difference;
+	}
+
+	static long multiply(long a, long b) {
+		long high = Math.multiplyHigh(a, b);
+		long low = a * b;
+		// 2^61 is 1 modulo MOD, so fold the 122-bit product down in 61-bit
+		// pieces
+		long folded = (low & MOD) + (low >>> 61) + (high << 3);
+		folded = (folded & MOD) + (folded >>> 61);
+		return (folded >= MOD) ? folded - MOD : folded;
+	}
+
+	/**
+	 * @return a to the power e, modulo MOD
+	 */
+	static long power(long a, long e) {
+		long result = 1;
+		long square = a;
+		while (e > 0) {
+			if ((e & 1) != 0) {
+				result = PolyHash.multiply(result, square);
+			}
+			square = PolyHash.multiply(square, square);
+			e >>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the hash of chars[start] through chars[end - 1]
+	 */
+	static long of(char[] chars, int start, int end) {
+		long hash = 0;
+		for (int i = end - 1; i >= start; i--) {
+			hash = PolyHash.add(PolyHash.multiply(hash, BASE), chars[i]);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the hash of the Latin-1 characters bytes[start] through
+	 *         bytes[end - 1], the same as that of the chars they stand for
+	 */
+	static long of(byte[] bytes, int start, int end) {
+		long hash = 0;
+		for (int i = end - 1; i >= start; i--) {
+			hash = PolyHash.add(PolyHash.multiply(hash, BASE), bytes[i] & 0xFF);
+		}
+		return hash;
+	}
+}
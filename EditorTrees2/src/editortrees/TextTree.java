@@ -0,0 +1,150 @@
+package editortrees;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * The editing and reading operations that EditTree and ArrayEditTree both
+ * have, so that code and benchmarks can be written once for either tree.
+ * Positions count chars from 0, and the methods throw
+ * IndexOutOfBoundsException for positions outside the tree, as EditTree's do.
+ *
+ * EditTree has more than this: chunks, regionHash and regionEquals, the code
+ * point methods, undo and redo, batches of edits, metrics, cursors, the
+ * n-gram index behind findAll and matches, sharing between threads, and
+ * reading and writing streams. ArrayEditTree has none of those, and its
+ * snapshot copies the tree, in O(N) time rather than O(1).
+ *
+ * @param <T>
+ *            the class implementing this, which split returns and
+ *            concatenate takes
+ */
+public interface TextTree<T extends TextTree<T>> {
+
+	/**
+	 * @return the number of characters in this tree
+	 */
+	int size();
+
+	/**
+	 * @return the height of this tree, -1 if it is empty
+	 */
+	int height();
+
+	/**
+	 * @return the character at pos
+	 */
+	char get(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the length characters starting at pos
+	 */
+	String get(int pos, int length) throws IndexOutOfBoundsException;
+
+	/**
+	 * Adds ch to the end of this tree
+	 */
+	void add(char ch);
+
+	/**
+	 * Adds ch at pos, so that it is then the character at pos
+	 */
+	void add(char ch, int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * Adds the characters of s at pos, in O(k + log N) time for k the length
+	 * of s
+	 */
+	void add(String s, int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * Removes the character at pos
+	 *
+	 * @return the character removed
+	 */
+	char delete(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * Removes the length characters starting at pos
+	 *
+	 * @return the characters removed
+	 */
+	String delete(int pos, int length) throws IndexOutOfBoundsException;
+
+	/**
+	 * Replaces the length characters starting at pos with s
+	 *
+	 * @return the characters replaced
+	 */
+	String replace(int pos, int length, String s) throws IndexOutOfBoundsException;
+
+	/**
+	 * Appends the characters of other to this tree and empties other
+	 *
+	 * @throws IllegalArgumentException
+	 *             if other is this tree
+	 */
+	void concatenate(T other) throws IllegalArgumentException;
+
+	/**
+	 * Cuts this tree in two, the inverse of concatenate: this tree keeps the
+	 * characters before pos
+	 *
+	 * @return a tree of the characters from pos on
+	 */
+	T split(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return a tree with the same characters, which later edits to either
+	 *         tree leave out of the other
+	 */
+	T snapshot();
+
+	/**
+	 * @return the number of lines, one more than the number of newlines
+	 */
+	int lineCount();
+
+	/**
+	 * @return the position of the first character of the given line,
+	 *         counting lines from 0
+	 */
+	int lineStart(int line) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the line holding position pos, from 0 to the size of this tree.
+	 *         A newline is on the line it ends.
+	 */
+	int lineOf(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the characters of the given line, without its newline
+	 */
+	String getLine(int line) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the position of the first occurrence of s, or -1
+	 */
+	int find(String s);
+
+	/**
+	 * @return the position of the first occurrence of s from pos on, or -1
+	 */
+	int find(String s, int pos);
+
+	/**
+	 * @return an iterator over the characters from pos on, which must not be
+	 *         used after this tree changes
+	 */
+	PrimitiveIterator.OfInt iterator(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the number of rotations done in this tree since it was made,
+	 *         counting a double rotation as two
+	 */
+	int totalRotationCount();
+
+	/**
+	 * @return the elements, ranks and balance codes in a pre-order traversal
+	 */
+	String toDebugString();
+}
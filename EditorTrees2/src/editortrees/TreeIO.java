@@ -0,0 +1,209 @@
+package editortrees;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads text into trees and writes it out again a block at a time. Each block
+ * of characters read is built into a balanced subtree and concatenated onto
+ * the tree read so far, and writing copies the characters out of the nodes in
+ * order a block at a time, so besides the tree itself only one block of
+ * characters and one buffer of bytes are ever held.
+ */
+final class TreeIO {
+
+	// characters built into a subtree at a time
+	private static final int BLOCK = 1 << 16;
+	// bytes read from a channel at a time
+	private static final int BUFFER = 1 << 16;
+	// bytes of a file mapped into memory at a time
+	static final int WINDOW = 1 << 26;
+
+	private EditTree tree;
+	private int chunkSize;
+	// when reading started, and the nodes the metrics had counted by then
+	private long start;
+	private long allocated;
+	private CharsetDecoder decoder;
+	// the characters decoded but not yet added to the tree
+	private CharBuffer block;
+
+	private TreeIO(int chunkSize, Charset charset, EditMetrics metrics) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.tree = new EditTree("", chunkSize);
+		this.chunkSize = chunkSize;
+		if (metrics != null) {
+			this.tree.useMetrics(metrics);
+			this.start = System.nanoTime();
+			this.allocated = metrics.nodesAllocated();
+		}
+		if (charset != null) {
+			this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		// a whole number of chunks and one char more, so that a block the
+		// decoder stops short of filling still holds whole chunks to build
+		this.block = CharBuffer.allocate(Math.max(BLOCK / chunkSize, 1) * chunkSize + 1);
+	}
+
+	static EditTree read(Reader in, int chunkSize, EditMetrics metrics) throws IOException {
+		TreeIO io = new TreeIO(chunkSize, null, metrics);
+		char[] chars = io.block.array();
+		int n;
+		while ((n = in.read(chars, io.block.position(), io.block.remaining())) != -1) {
+			io.block.position(io.block.position() + n);
+			if (!io.block.hasRemaining()) {
+				io.add(false);
+			}
+		}
+		io.add(true);
+		return io.loaded();
+	}
+
+	static EditTree read(ReadableByteChannel in, Charset charset, int chunkSize, EditMetrics metrics)
+			throws IOException {
+		TreeIO io = new TreeIO(chunkSize, charset, metrics);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER);
+		boolean end = false;
+		while (!end) {
+			end = in.read(bytes) == -1;
+			bytes.flip();
+			io.decode(bytes, end);
+			bytes.compact();
+		}
+		io.finish();
+		return io.loaded();
+	}
+
+	static EditTree map(FileChannel in, Charset charset, int chunkSize, EditMetrics metrics) throws IOException {
+		return TreeIO.map(in, charset, chunkSize, metrics, WINDOW);
+	}
+
+	/**
+	 * Maps the file in a window of the given number of bytes at a time, which
+	 * must hold the longest character in the charset
+	 */
+	static EditTree map(FileChannel in, Charset charset, int chunkSize, EditMetrics metrics, int windowSize)
+			throws IOException {
+		TreeIO io = new TreeIO(chunkSize, charset, metrics);
+		long size = in.size();
+		long pos = 0;
+		do {
+			long length = Math.min(windowSize, size - pos);
+			ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+			io.decode(window, pos + length == size);
+			// the bytes of a character cut off by the end of the window are
+			// mapped again with the next one
+			pos += window.position();
+		} while (pos < size);
+		io.finish();
+		return io.loaded();
+	}
+
+	static void write(Node root, Writer out) throws IOException {
+		char[] block = new char[BLOCK];
+		CharIterator it = new CharIterator(root, 0);
+		int n;
+		while ((n = it.read(block, 0, block.length)) != -1) {
+			out.write(block, 0, n);
+		}
+	}
+
+	static void write(Node root, WritableByteChannel out, Charset charset) throws IOException {
+		CharsetEncoder encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer block = CharBuffer.allocate(BLOCK);
+		// the encoders only have fast loops for buffers backed by arrays, and
+		// channels copy those through a direct buffer they keep anyway
+		ByteBuffer bytes = ByteBuffer.allocate(BUFFER);
+		CharIterator it = new CharIterator(root, 0);
+		boolean end = false;
+		while (!end) {
+			// the block may still hold the first half of a surrogate pair
+			int n = it.read(block.array(), block.position(), block.remaining());
+			if (n > 0) {
+				block.position(block.position() + n);
+			}
+			end = !it.hasNext();
+			block.flip();
+			while (encoder.encode(block, bytes, end).isOverflow()) {
+				TreeIO.drain(bytes, out);
+			}
+			block.compact();
+		}
+		while (encoder.flush(bytes).isOverflow()) {
+			TreeIO.drain(bytes, out);
+		}
+		TreeIO.drain(bytes, out);
+	}
+
+	/**
+	 * Writes all the bytes in the buffer and empties it
+	 */
+	private static void drain(ByteBuffer bytes, WritableByteChannel out) throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	/**
+	 * Decodes as much of bytes as it can, adding each block to the tree as it
+	 * fills. The decoder stops short of a full block when the next character
+	 * is a surrogate pair and only one char is left.
+	 */
+	private void decode(ByteBuffer bytes, boolean end) {
+		while (this.decoder.decode(bytes, this.block, end).isOverflow()) {
+			this.add(false);
+		}
+	}
+
+	/**
+	 * Adds whatever the decoder still holds, and the last block, to the tree
+	 */
+	private void finish() {
+		while (this.decoder.flush(this.block).isOverflow()) {
+			this.add(false);
+		}
+		this.add(true);
+	}
+
+	/**
+	 * @return the tree read, with the whole read counted as one load in its
+	 *         metrics if it keeps any
+	 */
+	private EditTree loaded() {
+		this.tree.loaded(this.start, this.allocated);
+		return this.tree;
+	}
+
+	/**
+	 * Builds the characters in the block into a subtree and concatenates it
+	 * onto the tree. Unless this is the last block, only whole chunks are
+	 * built, and the characters left over stay at the start of the block for
+	 * the next one, so that no short chunk ends up in the middle of the tree.
+	 */
+	private void add(boolean last) {
+		this.block.flip();
+		int end = this.block.limit();
+		int cut = last ? end : end - end % this.chunkSize;
+		this.block.limit(cut);
+		this.tree.append(new EditTree(this.block, this.chunkSize));
+		this.block.limit(end);
+		this.block.position(cut);
+		this.block.compact();
+	}
+}
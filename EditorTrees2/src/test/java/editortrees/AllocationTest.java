@@ -0,0 +1,143 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks what the edit paths allocate once warmed up: an insert makes only
+ * its new node, and deletes and concatenations make nothing, so that going
+ * back to a Wrap or Split per call fails here. Also checks what a node costs,
+ * so that a field added to every node has to be paid for here.
+ */
+public class AllocationTest {
+
+	// characters in the tree edited
+	private static final int SIZE = 1 << 20;
+	// edits measured, and made beforehand to warm up
+	private static final int EDITS = 1 << 16;
+	private static final int WARMUP = 20;
+	// bytes a single-character node may take with compressed references: a
+	// 12-byte header, the element, balance, rank, two children, and the line
+	// count, hashes and epoch that regionHash and shared versions need, which
+	// round up to 40
+	private static final int NODE_BYTES = 40;
+
+	private static com.sun.management.ThreadMXBean threads;
+	private static String text;
+
+	@BeforeAll
+	public static void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		StringBuilder sb = new StringBuilder(SIZE);
+		Random random = new Random(17);
+		for (int i = 0; i < SIZE; i++) {
+			sb.append((char) ('a' + random.nextInt(26)));
+		}
+		text = sb.toString();
+	}
+
+	/**
+	 * @return the bytes this thread has allocated so far
+	 */
+	private static long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @return the bytes one single-character node takes, measured the same
+	 *         way as the edits
+	 */
+	private static double nodeBytes() {
+		Node[] nodes = new Node[EDITS];
+		long before = AllocationTest.allocated();
+		for (int i = 0; i < EDITS; i++) {
+			nodes[i] = new Node('x');
+		}
+		long bytes = AllocationTest.allocated() - before;
+		assertEquals('x', nodes[EDITS - 1].getElement());
+		return (double) bytes / EDITS;
+	}
+
+	private static int[] positions(int count, int bound, long seed) {
+		Random random = new Random(seed);
+		int[] positions = new int[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = random.nextInt(bound);
+		}
+		return positions;
+	}
+
+	@Test
+	public void insertAllocatesOneNodeAndDeleteNothing() {
+		EditTree tree = new EditTree(text);
+		int[] inserts = AllocationTest.positions(EDITS, SIZE, 1);
+		int[] deletes = AllocationTest.positions(EDITS, SIZE, 2);
+		for (int round = 0; round < WARMUP; round++) {
+			this.insertAll(tree, inserts);
+			this.deleteAll(tree, deletes);
+		}
+		double node = AllocationTest.nodeBytes();
+
+		long before = AllocationTest.allocated();
+		this.insertAll(tree, inserts);
+		double perInsert = (double) (AllocationTest.allocated() - before) / EDITS;
+		before = AllocationTest.allocated();
+		this.deleteAll(tree, deletes);
+		double perDelete = (double) (AllocationTest.allocated() - before) / EDITS;
+
+		assertEquals(SIZE, tree.size());
+		assertTrue(perInsert < node * 1.25, "insert allocated " + perInsert + " bytes, a node is " + node);
+		assertTrue(perDelete < 1, "delete allocated " + perDelete + " bytes");
+	}
+
+	@Test
+	public void nodeFitsItsBudget() {
+		double node = AllocationTest.nodeBytes();
+		assertTrue(node <= NODE_BYTES, "a node is " + node + " bytes");
+		// a tree that never asks for hashes makes no Sums for its nodes
+		EditTree tree = new EditTree(text.substring(0, EDITS));
+		assertTrue(tree.getRoot().sums == null);
+	}
+
+	@Test
+	public void concatenateAllocatesNothing() {
+		EditTree tree = new EditTree(text);
+		EditTree[] blocks = new EditTree[EDITS / 64];
+		for (int round = 0; round <= WARMUP; round++) {
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i] = new EditTree("block of text");
+			}
+			long before = AllocationTest.allocated();
+			for (EditTree block : blocks) {
+				tree.concatenate(block);
+			}
+			double perConcatenate = (double) (AllocationTest.allocated() - before) / blocks.length;
+			if (round == WARMUP) {
+				assertTrue(perConcatenate < 1, "concatenate allocated " + perConcatenate + " bytes");
+			}
+		}
+		assertEquals(SIZE + (WARMUP + 1) * blocks.length * "block of text".length(), tree.size());
+	}
+
+	private void insertAll(EditTree tree, int[] positions) {
+		for (int pos : positions) {
+			tree.add('x', pos);
+		}
+	}
+
+	private void deleteAll(EditTree tree, int[] positions) {
+		for (int pos : positions) {
+			tree.delete(pos);
+		}
+	}
+}
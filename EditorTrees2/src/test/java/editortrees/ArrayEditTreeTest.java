@@ -0,0 +1,170 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks ArrayEditTree's TextTree methods against a StringBuilder holding the
+ * same text, and its single-character edits against an EditTree of one
+ * character per node, which should take the same shapes and rotations.
+ */
+public class ArrayEditTreeTest {
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(20) == 0) ? '\n' : (char) ('a' + random.nextInt(4)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks the text, size, height and lines of tree against model
+	 */
+	private static void check(ArrayEditTree tree, StringBuilder model) {
+		String text = model.toString();
+		assertEquals(text, tree.toString());
+		assertEquals(text.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		String[] lines = text.split("\n", -1);
+		assertEquals(lines.length, tree.lineCount());
+		int start = 0;
+		for (int line = 0; line < lines.length; line++) {
+			assertEquals(start, tree.lineStart(line));
+			assertEquals(lines[line], tree.getLine(line));
+			assertEquals(line, tree.lineOf(start));
+			start += lines[line].length() + 1;
+		}
+		assertEquals(lines.length - 1, tree.lineOf(text.length()));
+	}
+
+	@Test
+	public void singleEditsMatchAnEditTree() {
+		String text = ArrayEditTreeTest.text(1000, 1);
+		ArrayEditTree tree = new ArrayEditTree(text);
+		EditTree nodes = new EditTree(text);
+		assertEquals(nodes.toDebugString(), tree.toDebugString());
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			if (random.nextBoolean()) {
+				int pos = random.nextInt(tree.size() + 1);
+				tree.add('x', pos);
+				nodes.add('x', pos);
+			} else {
+				int pos = random.nextInt(tree.size());
+				assertEquals(nodes.delete(pos), tree.delete(pos));
+			}
+		}
+		assertEquals(nodes.toDebugString(), tree.toDebugString());
+		assertEquals(nodes.totalRotationCount(), tree.totalRotationCount());
+	}
+
+	@Test
+	public void rangeEditsMatchAStringBuilder() {
+		String text = ArrayEditTreeTest.text(2000, 2);
+		ArrayEditTree tree = new ArrayEditTree(text);
+		StringBuilder model = new StringBuilder(text);
+		Random random = new Random(2);
+		for (int i = 0; i < 2000; i++) {
+			int pos = random.nextInt(model.length() + 1);
+			int length = Math.min(random.nextInt(30), model.length() - pos);
+			switch (random.nextInt(4)) {
+			case 0:
+				String s = ArrayEditTreeTest.text(random.nextInt(30), i);
+				tree.add(s, pos);
+				model.insert(pos, s);
+				break;
+			case 1:
+				assertEquals(model.substring(pos, pos + length), tree.delete(pos, length));
+				model.delete(pos, pos + length);
+				break;
+			case 2:
+				String r = ArrayEditTreeTest.text(random.nextInt(30), -i);
+				assertEquals(model.substring(pos, pos + length), tree.replace(pos, length, r));
+				model.replace(pos, pos + length, r);
+				break;
+			default:
+				assertEquals(model.substring(pos, pos + length), tree.get(pos, length));
+				String pattern = model.substring(pos, pos + Math.min(length, 4));
+				assertEquals(model.indexOf(pattern, pos / 2), tree.find(pattern, pos / 2));
+			}
+			if (i % 100 == 0) {
+				ArrayEditTreeTest.check(tree, model);
+			}
+		}
+		ArrayEditTreeTest.check(tree, model);
+	}
+
+	@Test
+	public void splitAndConcatenateAreInverses() {
+		String text = ArrayEditTreeTest.text(3000, 3);
+		ArrayEditTree tree = new ArrayEditTree(text);
+		Random random = new Random(3);
+		for (int i = 0; i < 500; i++) {
+			int pos = random.nextInt(text.length() + 1);
+			ArrayEditTree rest = tree.split(pos);
+			ArrayEditTreeTest.check(tree, new StringBuilder(text.substring(0, pos)));
+			ArrayEditTreeTest.check(rest, new StringBuilder(text.substring(pos)));
+			tree.concatenate(rest);
+			assertEquals(0, rest.size());
+			ArrayEditTreeTest.check(tree, new StringBuilder(text));
+		}
+		// trees that do not share their arrays are copied together
+		ArrayEditTree other = new ArrayEditTree("xy\nz");
+		tree.concatenate(other);
+		ArrayEditTreeTest.check(tree, new StringBuilder(text + "xy\nz"));
+		assertThrows(IllegalArgumentException.class, () -> tree.concatenate(tree));
+		assertThrows(IndexOutOfBoundsException.class, () -> tree.split(tree.size() + 1));
+	}
+
+	@Test
+	public void splitTreesEditIndependently() {
+		String text = ArrayEditTreeTest.text(500, 4);
+		ArrayEditTree tree = new ArrayEditTree(text);
+		ArrayEditTree rest = tree.split(200);
+		StringBuilder left = new StringBuilder(text.substring(0, 200));
+		StringBuilder right = new StringBuilder(text.substring(200));
+		Random random = new Random(4);
+		for (int i = 0; i < 1000; i++) {
+			boolean first = random.nextBoolean();
+			ArrayEditTree t = first ? tree : rest;
+			StringBuilder model = first ? left : right;
+			int pos = random.nextInt(model.length() + 1);
+			if (random.nextBoolean() || model.length() == pos) {
+				t.add('\n', pos);
+				model.insert(pos, '\n');
+			} else {
+				assertEquals(model.charAt(pos), t.delete(pos));
+				model.deleteCharAt(pos);
+			}
+		}
+		ArrayEditTreeTest.check(tree, left);
+		ArrayEditTreeTest.check(rest, right);
+		ArrayEditTree copy = tree.snapshot();
+		tree.add("abc", 0);
+		ArrayEditTreeTest.check(copy, left);
+	}
+
+	@Test
+	public void iteratorsStartAnywhere() {
+		String text = ArrayEditTreeTest.text(300, 5);
+		ArrayEditTree tree = new ArrayEditTree(text);
+		for (int pos = 0; pos <= text.length(); pos++) {
+			PrimitiveIterator.OfInt it = tree.iterator(pos);
+			StringBuilder sb = new StringBuilder();
+			while (it.hasNext()) {
+				sb.append((char) it.nextInt());
+			}
+			assertEquals(text.substring(pos), sb.toString());
+		}
+		assertThrows(IndexOutOfBoundsException.class, () -> tree.iterator(-1));
+		assertThrows(IndexOutOfBoundsException.class, () -> tree.lineStart(tree.lineCount()));
+	}
+}
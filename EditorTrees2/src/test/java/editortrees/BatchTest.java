@@ -0,0 +1,178 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks applyBatch against a StringBuilder given the same edits from the
+ * back, in trees of one character per node and chunked ones, with edits that
+ * span nodes and inserts at the edges of nodes, where a chunked tree splits
+ * and joins its chunks.
+ */
+public class BatchTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Makes the edits in model, from the last to the first so that their
+	 * positions stay put, with inserts at one position in the order given
+	 */
+	private static void apply(StringBuilder model, List<Edit> edits) {
+		List<Edit> sorted = new ArrayList<>(edits);
+		Collections.sort(sorted, (a, b) -> (a.getPosition() != b.getPosition())
+				? Integer.compare(a.getPosition(), b.getPosition())
+				: Boolean.compare(a.getLength() > 0, b.getLength() > 0));
+		for (int i = sorted.size() - 1; i >= 0; i--) {
+			Edit e = sorted.get(i);
+			model.replace(e.getPosition(), e.getPosition() + e.getLength(), e.getText());
+		}
+	}
+
+	private static void check(EditTree tree, StringBuilder model) {
+		assertEquals(model.toString(), tree.toString());
+		assertEquals(model.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		assertEquals(model.toString().split("\n", -1).length, tree.lineCount());
+		for (int i = 0; i < model.length(); i += 13) {
+			assertEquals(model.charAt(i), tree.get(i));
+		}
+	}
+
+	/**
+	 * @return edits at sorted random positions that don't overlap, of the
+	 *         given longest length, in shuffled order
+	 */
+	private static List<Edit> edits(int count, int size, int longest, Random random) {
+		int[] starts = new int[count];
+		for (int i = 0; i < count; i++) {
+			starts[i] = random.nextInt(size + 1);
+		}
+		Arrays.sort(starts);
+		List<Edit> edits = new ArrayList<>();
+		int end = 0;
+		for (int start : starts) {
+			if (start < end) {
+				continue;
+			}
+			int length = Math.min(random.nextInt(longest + 1), size - start);
+			String text = BatchTest.text(random.nextInt(longest + 1), start);
+			edits.add(new Edit(start, length, text));
+			end = start + length;
+		}
+		Collections.shuffle(edits, random);
+		return edits;
+	}
+
+	@Test
+	public void batchesMatchAStringBuilder() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = BatchTest.text(5000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			for (int round = 0; round < 100; round++) {
+				// short edits within nodes and long ones across many
+				int longest = (round % 2 == 0) ? 3 : 40;
+				List<Edit> edits = BatchTest.edits(1 + random.nextInt(60), model.length(), longest, random);
+				tree.applyBatch(edits);
+				BatchTest.apply(model, edits);
+				BatchTest.check(tree, model);
+			}
+		}
+	}
+
+	@Test
+	public void editsAtTheEdgesOfNodes() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = BatchTest.text(800, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			// a new tree's chunks are full, so they start at multiples of the
+			// chunk size
+			List<Edit> edits = new ArrayList<>();
+			for (int pos = 0; pos + 3 * chunkSize <= model.length(); pos += 4 * chunkSize) {
+				// an insert where a node starts, and a delete from just before
+				// the next node to just after the one after it
+				edits.add(Edit.insert(pos, "<" + pos + ">"));
+				edits.add(Edit.delete(pos + chunkSize - 1, chunkSize + 2));
+			}
+			edits.add(Edit.insert(model.length(), "end"));
+			tree.applyBatch(edits);
+			BatchTest.apply(model, edits);
+			BatchTest.check(tree, model);
+
+			// replacing whole nodes, and everything at once
+			edits.clear();
+			for (int pos = 0; pos + 2 * chunkSize <= model.length(); pos += 5 * chunkSize) {
+				edits.add(Edit.replace(pos, 2 * chunkSize, "r"));
+			}
+			tree.applyBatch(edits);
+			BatchTest.apply(model, edits);
+			BatchTest.check(tree, model);
+			tree.applyBatch(Arrays.asList(Edit.replace(0, model.length(), "all")));
+			BatchTest.check(tree, new StringBuilder("all"));
+		}
+	}
+
+	@Test
+	public void insertsAtOnePositionKeepTheirOrder() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("abcdefghijklmnop", chunkSize);
+			tree.applyBatch(Arrays.asList(Edit.replace(4, 2, "R"), Edit.insert(4, "1"), Edit.insert(4, "2"),
+					Edit.insert(16, "3"), Edit.insert(0, "4")));
+			assertEquals("4abcd12Rghijklmnop3", tree.toString());
+		}
+	}
+
+	@Test
+	public void undoTakesTheWholeBatchBack() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = BatchTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			tree.keepHistory(10, 1 << 20);
+			StringBuilder model = new StringBuilder(text);
+			List<Edit> edits = BatchTest.edits(50, text.length(), 10, new Random(chunkSize));
+			tree.applyBatch(edits);
+			BatchTest.apply(model, edits);
+			assertTrue(tree.undo());
+			BatchTest.check(tree, new StringBuilder(text));
+			assertTrue(tree.redo());
+			BatchTest.check(tree, model);
+		}
+	}
+
+	@Test
+	public void badBatchesThrowAndChangeNothing() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("abcdefgh", chunkSize);
+			assertThrows(IllegalArgumentException.class,
+					() -> tree.applyBatch(Arrays.asList(Edit.delete(1, 3), Edit.insert(2, "x"))));
+			assertThrows(IndexOutOfBoundsException.class,
+					() -> tree.applyBatch(Arrays.asList(Edit.delete(6, 3))));
+			assertThrows(IndexOutOfBoundsException.class,
+					() -> tree.applyBatch(Arrays.asList(Edit.insert(-1, "x"))));
+			BatchTest.check(tree, new StringBuilder("abcdefgh"));
+			tree.applyBatch(new ArrayList<>());
+			BatchTest.check(tree, new StringBuilder("abcdefgh"));
+		}
+	}
+}
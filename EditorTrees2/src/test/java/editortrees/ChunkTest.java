@@ -0,0 +1,228 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that chunked trees keep their chunks reasonably full: arrays are
+ * sized to what they hold, and deletes and joins merge a chunk that falls
+ * below half full into a neighbour with room for it. Every edit is checked
+ * against a StringBuilder holding the same text.
+ */
+public class ChunkTest {
+
+	private static final int[] CHUNK_SIZES = { 2, 8, 64 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			// now and then a newline or a character wider than Latin-1
+			int kind = random.nextInt(40);
+			sb.append((kind == 0) ? '\n' : (kind == 1) ? '\u0416' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the tree's chunks in order
+	 */
+	private static List<ChunkNode> chunks(EditTree tree) {
+		List<ChunkNode> chunks = new ArrayList<>();
+		ChunkTest.collect(tree.getRoot(), chunks);
+		return chunks;
+	}
+
+	private static void collect(Node n, List<ChunkNode> chunks) {
+		if (n instanceof Null_Node) {
+			return;
+		}
+		ChunkTest.collect(n.left, chunks);
+		chunks.add((ChunkNode) n);
+		ChunkTest.collect(n.right, chunks);
+	}
+
+	/**
+	 * Checks the text, the newline count and each chunk's array
+	 */
+	private static void check(EditTree tree, StringBuilder model) {
+		assertEquals(model.toString(), tree.toString());
+		assertEquals(model.length(), tree.size());
+		for (ChunkNode chunk : ChunkTest.chunks(tree)) {
+			assertTrue(chunk.count > 0);
+			assertTrue(chunk.count <= chunk.capacity());
+			assertTrue(chunk.length() <= chunk.capacity());
+		}
+	}
+
+	/**
+	 * Checks that no two chunks under half full sit next to each other, since
+	 * whichever shrank last would have been merged into the other
+	 */
+	private static void checkMerged(EditTree tree) {
+		List<ChunkNode> chunks = ChunkTest.chunks(tree);
+		for (int i = 1; i < chunks.size(); i++) {
+			ChunkNode a = chunks.get(i - 1);
+			ChunkNode b = chunks.get(i);
+			assertTrue(!a.isSmall() || !b.isSmall(), "chunks of " + a.count + " and " + b.count + " left apart");
+		}
+	}
+
+	@Test
+	public void builtChunksHoldOnlyTheirCharacters() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = ChunkTest.text(1000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			for (ChunkNode chunk : ChunkTest.chunks(tree)) {
+				assertEquals(chunk.count, chunk.length());
+			}
+			ChunkTest.check(tree, new StringBuilder(text));
+		}
+	}
+
+	@Test
+	public void typingGrowsTheChunkItFills() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("", chunkSize);
+			StringBuilder model = new StringBuilder();
+			String text = ChunkTest.text(500, chunkSize);
+			for (int i = 0; i < text.length(); i++) {
+				tree.add(text.charAt(i));
+				model.append(text.charAt(i));
+			}
+			ChunkTest.check(tree, model);
+			// a lone character starts out in an array of one
+			EditTree one = new EditTree("", chunkSize);
+			one.add('x');
+			assertEquals(1, ChunkTest.chunks(one).get(0).length());
+		}
+	}
+
+	@Test
+	public void deletesMergeSmallChunks() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = ChunkTest.text(4000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			while (model.length() > 1000) {
+				int pos = random.nextInt(model.length());
+				assertEquals(model.charAt(pos), tree.delete(pos));
+				model.deleteCharAt(pos);
+			}
+			ChunkTest.check(tree, model);
+			ChunkTest.checkMerged(tree);
+			// chunks of one character cannot be merged
+			if (chunkSize > 2) {
+				int chunks = ChunkTest.chunks(tree).size();
+				assertTrue(chunks * chunkSize / 4 <= model.length(), chunks + " chunks for " + model.length());
+			}
+		}
+	}
+
+	@Test
+	public void cursorDeletesMergeSmallChunks() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = ChunkTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			EditTree.Cursor cursor = tree.cursor(0);
+			while (model.length() > 500) {
+				int pos = random.nextInt(model.length());
+				cursor.moveTo(pos);
+				for (int i = 0; i < 3 && pos < model.length(); i++) {
+					assertEquals(model.charAt(pos), cursor.delete());
+					model.deleteCharAt(pos);
+				}
+			}
+			ChunkTest.check(tree, model);
+			ChunkTest.checkMerged(tree);
+		}
+	}
+
+	@Test
+	public void joinsMergeChunksAtTheSeams() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = ChunkTest.text(3000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 300; i++) {
+				int pos = random.nextInt(model.length() + 1);
+				switch (random.nextInt(4)) {
+				case 0:
+					String s = ChunkTest.text(random.nextInt(5), i);
+					tree.add(s, pos);
+					model.insert(pos, s);
+					break;
+				case 1:
+					int length = Math.min(random.nextInt(6), model.length() - pos);
+					assertEquals(model.substring(pos, pos + length), tree.delete(pos, length));
+					model.delete(pos, pos + length);
+					break;
+				case 2:
+					length = Math.min(random.nextInt(6), model.length() - pos);
+					String r = ChunkTest.text(random.nextInt(4), -i);
+					assertEquals(model.substring(pos, pos + length), tree.replace(pos, length, r));
+					model.replace(pos, pos + length, r);
+					break;
+				default:
+					EditTree rest = tree.split(pos);
+					tree.concatenate(rest);
+				}
+				ChunkTest.check(tree, model);
+			}
+			// each of the three hundred edits leaves at most a couple of small
+			// chunks behind at its seams
+			int small = 0;
+			for (ChunkNode chunk : ChunkTest.chunks(tree)) {
+				if (chunk.isSmall()) {
+					small++;
+				}
+			}
+			assertTrue(small <= 600, small + " small chunks");
+			assertTrue(ChunkTest.chunks(tree).size() * chunkSize / 4 <= model.length() || chunkSize == 2);
+		}
+	}
+
+	@Test
+	public void batchesMergeChunksAtTheSeams() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = ChunkTest.text(3000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			for (int round = 0; round < 20; round++) {
+				List<Edit> edits = new ArrayList<>();
+				Random random = new Random(round);
+				int[] starts = new int[10];
+				for (int i = 0; i < starts.length; i++) {
+					starts[i] = random.nextInt(model.length() - 10);
+				}
+				Arrays.sort(starts);
+				int end = 0;
+				for (int start : starts) {
+					if (start < end) {
+						continue;
+					}
+					int length = random.nextInt(4);
+					edits.add(Edit.replace(start, length, ChunkTest.text(random.nextInt(3), start)));
+					end = start + length;
+				}
+				tree.applyBatch(edits);
+				for (int i = edits.size() - 1; i >= 0; i--) {
+					Edit e = edits.get(i);
+					model.replace(e.getPosition(), e.getPosition() + e.getLength(), e.getText());
+				}
+				ChunkTest.check(tree, model);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the code point methods against a StringBuilder holding the same
+ * text, with emoji and other pairs mixed into Latin-1 and wider characters,
+ * in trees of one character per node and chunked ones, and checks that
+ * chunks stay a byte per character until a wider one arrives.
+ */
+public class CodePointTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	/**
+	 * @return a code point: mostly ASCII, some Latin-1, some wider, and some
+	 *         outside the Basic Multilingual Plane
+	 */
+	private static int codePoint(Random random) {
+		switch (random.nextInt(10)) {
+		case 0:
+			return 0x1F600 + random.nextInt(80);
+		case 1:
+			return 0x10000 + random.nextInt(0x100000);
+		case 2:
+			return 0xE0 + random.nextInt(32);
+		case 3:
+			return 0x0410 + random.nextInt(32);
+		default:
+			return 'a' + random.nextInt(26);
+		}
+	}
+
+	private static String text(int codePoints, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < codePoints; i++) {
+			sb.appendCodePoint(CodePointTest.codePoint(random));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks the code points of tree against model, which holds only whole
+	 * pairs
+	 */
+	private static void check(EditTree tree, StringBuilder model) {
+		assertEquals(model.toString(), tree.toString());
+		int count = model.codePointCount(0, model.length());
+		assertEquals(count, tree.codePointCount());
+		for (int index = 0, pos = 0; index <= count; index++) {
+			assertEquals(pos, tree.charIndex(index));
+			assertEquals(index, tree.codePointIndex(pos));
+			if (index < count) {
+				int codePoint = model.codePointAt(pos);
+				assertEquals(codePoint, tree.getCodePoint(index));
+				pos += Character.charCount(codePoint);
+				if (Character.charCount(codePoint) == 2) {
+					// the position between the halves of a pair
+					assertEquals(index + 1, tree.codePointIndex(pos - 1));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void codePointEditsMatchAStringBuilder() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = CodePointTest.text(1000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			CodePointTest.check(tree, model);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 3000; i++) {
+				int count = model.codePointCount(0, model.length());
+				int index = random.nextInt(count + 1);
+				int pos = model.offsetByCodePoints(0, index);
+				switch (random.nextInt(4)) {
+				case 0:
+					int codePoint = CodePointTest.codePoint(random);
+					tree.addCodePoint(codePoint, index);
+					model.insert(pos, new String(Character.toChars(codePoint)));
+					break;
+				case 1:
+					if (index < count) {
+						int deleted = model.codePointAt(pos);
+						assertEquals(deleted, tree.deleteCodePoint(index));
+						model.delete(pos, pos + Character.charCount(deleted));
+					}
+					break;
+				case 2:
+					// char-indexed edits that keep pairs whole
+					String s = CodePointTest.text(random.nextInt(5), i);
+					tree.add(s, pos);
+					model.insert(pos, s);
+					break;
+				default:
+					int end = model.offsetByCodePoints(pos, Math.min(random.nextInt(5), count - index));
+					assertEquals(model.substring(pos, end), tree.delete(pos, end - pos));
+					model.delete(pos, end);
+				}
+				if (i % 100 == 0) {
+					CodePointTest.check(tree, model);
+				}
+			}
+			CodePointTest.check(tree, model);
+		}
+	}
+
+	@Test
+	public void badCodePointsThrow() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("a\uD83D\uDE00b", chunkSize);
+			assertEquals(3, tree.codePointCount());
+			assertThrows(IllegalArgumentException.class, () -> tree.addCodePoint(0xDC00, 0));
+			assertThrows(IllegalArgumentException.class, () -> tree.addCodePoint(-1, 0));
+			assertThrows(IllegalArgumentException.class, () -> tree.addCodePoint(0x110000, 0));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.addCodePoint('x', 4));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.getCodePoint(3));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.deleteCodePoint(-1));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.charIndex(4));
+			assertEquals(0x1F600, tree.deleteCodePoint(1));
+			assertEquals("ab", tree.toString());
+		}
+	}
+
+	@Test
+	public void chunksWidenOnlyForWideCharacters() {
+		EditTree tree = new EditTree("plain Latin-1 text, caf\u00e9 and all".repeat(20), 8);
+		assertTrue(CodePointTest.allLatin1(tree.getRoot()));
+		tree.addCodePoint(0x1F600, 100);
+		assertFalse(CodePointTest.allLatin1(tree.getRoot()));
+		assertEquals(0x1F600, tree.getCodePoint(100));
+		assertEquals(0x1F600, tree.deleteCodePoint(100));
+		assertEquals("plain Latin-1 text, caf\u00e9 and all".repeat(20), tree.toString());
+	}
+
+	private static boolean allLatin1(Node n) {
+		if (n instanceof Null_Node) {
+			return true;
+		}
+		return ((ChunkNode) n).isLatin1() && CodePointTest.allLatin1(n.left) && CodePointTest.allLatin1(n.right);
+	}
+}
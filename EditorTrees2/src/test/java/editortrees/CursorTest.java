@@ -0,0 +1,156 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks cursors against a StringBuilder holding the same text, in trees of
+ * one character per node and chunked ones, and checks that a cursor keeps its
+ * path across its own edits instead of finding it from the root again.
+ */
+public class CursorTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private static void check(EditTree tree, StringBuilder model) {
+		assertEquals(model.toString(), tree.toString());
+		assertEquals(model.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		assertEquals(model.toString().split("\n", -1).length, tree.lineCount());
+		if (model.length() > 0) {
+			assertEquals(new EditTree(model.toString()).regionHash(0, model.length()),
+					tree.regionHash(0, tree.size()));
+		}
+	}
+
+	@Test
+	public void editsMatchAStringBuilder() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = CursorTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			EditTree.Cursor cursor = tree.cursor(0);
+			int pos = 0;
+			for (int i = 0; i < 20000; i++) {
+				int op = random.nextInt(20);
+				if (op < 6) {
+					char ch = (random.nextInt(10) == 0) ? '\n' : (char) ('a' + random.nextInt(26));
+					cursor.insert(ch);
+					model.insert(pos++, ch);
+				} else if (op < 9 && pos < model.length()) {
+					assertEquals(model.charAt(pos), cursor.delete());
+					model.deleteCharAt(pos);
+				} else if (op < 11 && pos > 0) {
+					assertEquals(model.charAt(pos - 1), cursor.backspace());
+					model.deleteCharAt(--pos);
+				} else if (op < 14 && pos < model.length()) {
+					assertEquals(model.charAt(pos++), cursor.next());
+				} else if (op < 16 && pos > 0) {
+					assertEquals(model.charAt(--pos), cursor.previous());
+				} else if (op < 18) {
+					pos = Math.max(0, Math.min(model.length(), pos + random.nextInt(41) - 20));
+					cursor.moveTo(pos);
+				} else if (op == 18) {
+					// an edit elsewhere, which the cursor notices
+					int at = random.nextInt(model.length() + 1);
+					tree.add('#', at);
+					model.insert(at, '#');
+					if (at < pos) {
+						pos++;
+						cursor.moveTo(pos);
+					}
+				} else {
+					// a snapshot leaves the path shared, so it is copied
+					tree.snapshot();
+				}
+				assertEquals(pos, cursor.position());
+				if (i % 500 == 0) {
+					CursorTest.check(tree, model);
+				}
+			}
+			CursorTest.check(tree, model);
+		}
+	}
+
+	@Test
+	public void endsThrow() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("ab", chunkSize);
+			EditTree.Cursor cursor = tree.cursor(2);
+			assertThrows(IndexOutOfBoundsException.class, () -> cursor.delete());
+			assertThrows(NoSuchElementException.class, () -> cursor.next());
+			cursor.moveTo(0);
+			assertThrows(IndexOutOfBoundsException.class, () -> cursor.backspace());
+			assertThrows(NoSuchElementException.class, () -> cursor.previous());
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.cursor(3));
+		}
+	}
+
+	@Test
+	public void typingIntoAnEmptyTree() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("", chunkSize);
+			EditTree.Cursor cursor = tree.cursor(0);
+			StringBuilder model = new StringBuilder();
+			for (int i = 0; i < 300; i++) {
+				char ch = (char) ('a' + i % 26);
+				cursor.insert(ch);
+				model.append(ch);
+			}
+			CursorTest.check(tree, model);
+			while (cursor.position() > 0) {
+				cursor.backspace();
+			}
+			assertEquals("", tree.toString());
+		}
+	}
+
+	@Test
+	public void pathSurvivesTheCursorsOwnEdits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = CursorTest.text(1 << 16, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			int pos = text.length() / 3;
+			EditTree.Cursor cursor = tree.cursor(pos);
+			cursor.position();
+			int before = cursor.restarts;
+			// typing, then deleting it all again, as an editor does
+			for (int i = 0; i < 2000; i++) {
+				char ch = (char) ('a' + i % 26);
+				cursor.insert(ch);
+				model.insert(pos++, ch);
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(model.charAt(pos - 1), cursor.backspace());
+				model.deleteCharAt(--pos);
+			}
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(model.charAt(pos), cursor.delete());
+				model.deleteCharAt(pos);
+			}
+			CursorTest.check(tree, model);
+			// only a rotation at the root starts the path over, which is rare in
+			// a tree this big
+			int restarts = cursor.restarts - before;
+			assertTrue(restarts < 10, restarts + " restarts in 4000 edits");
+		}
+	}
+}
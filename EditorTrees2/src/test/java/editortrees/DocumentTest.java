@@ -0,0 +1,184 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import editortrees.Document.Version;
+
+/**
+ * Checks that readers of a Document only ever see whole versions while one
+ * thread writes to it.
+ */
+public class DocumentTest {
+
+	private static final int READERS = 4;
+	private static final int WRITES = 2000;
+	// lines a version keeps; each write adds one at the front and then takes
+	// the last one off
+	private static final int LINES = 40;
+
+	/**
+	 * @return the text of version n: the numbers of the last LINES writes
+	 *         before it, newest first, a line each
+	 */
+	private static String textOf(long n) {
+		StringBuilder sb = new StringBuilder();
+		for (long i = n - 1; i >= Math.max(n - LINES, 0); i--) {
+			sb.append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void readersSeeOnlyWholeVersions() throws Exception {
+		Document doc = new Document();
+		AtomicBoolean done = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(READERS + 1);
+		try {
+			List<Future<Long>> readers = new ArrayList<>();
+			for (int r = 0; r < READERS; r++) {
+				readers.add(pool.submit(() -> {
+					long last = -1;
+					long seen = 0;
+					while (!done.get()) {
+						Version v = doc.read();
+						long n = v.getNumber();
+						assertTrue(n >= last, "versions went backwards");
+						last = n;
+						String expected = DocumentTest.textOf(n);
+						// read the version several ways, each of which must
+						// agree with the one edit it was published after
+						assertEquals(expected.length(), v.size());
+						assertEquals(expected, v.toString());
+						assertEquals(expected, v.asCharSequence().toString());
+						assertEquals(Math.min(n, LINES) + 1, v.lineCount());
+						if (n > 0) {
+							assertEquals(Long.toString(n - 1), v.getLine(0));
+							assertEquals(0, v.find((n - 1) + "\n", 0));
+						}
+						seen++;
+					}
+					return seen;
+				}));
+			}
+			Future<?> writer = pool.submit(() -> {
+				try {
+					for (int i = 0; i < WRITES; i++) {
+						String line = i + "\n";
+						doc.write(t -> {
+							// one character at a time, so that a reader
+							// seeing the writer's tree would catch it half
+							// done
+							for (int c = 0; c < line.length(); c++) {
+								t.add(line.charAt(c), c);
+							}
+							if (t.lineCount() > LINES + 1) {
+								int start = t.lineStart(LINES);
+								t.delete(start, t.size() - start);
+							}
+						});
+					}
+				} finally {
+					done.set(true);
+				}
+			});
+			writer.get();
+			for (Future<Long> reader : readers) {
+				assertTrue(reader.get() > 0);
+			}
+		} finally {
+			done.set(true);
+			pool.shutdownNow();
+		}
+		assertEquals(WRITES, doc.read().getNumber());
+		assertEquals(DocumentTest.textOf(WRITES), doc.read().toString());
+	}
+
+	@Test
+	public void copiesHashVersionsTheSameOnEveryThread() throws Exception {
+		for (int chunkSize : new int[] { 1, 8 }) {
+			StringBuilder start = new StringBuilder();
+			for (int i = 0; i < 500; i++) {
+				start.append("line ").append(i).append((i % 7 == 0) ? "\uD83D\uDE00" : "").append('\n');
+			}
+			Document doc = new Document(new EditTree(start.toString(), chunkSize));
+			AtomicBoolean done = new AtomicBoolean();
+			ExecutorService pool = Executors.newFixedThreadPool(READERS + 1);
+			try {
+				List<Future<Long>> readers = new ArrayList<>();
+				for (int r = 0; r < READERS; r++) {
+					long seed = r;
+					readers.add(pool.submit(() -> {
+						Random random = new Random(seed);
+						long seen = 0;
+						while (!done.get()) {
+							// copies of one version share its nodes, and
+							// hashing one must not write into them
+							Version v = doc.read();
+							EditTree copy = v.copy();
+							String text = v.toString();
+							int pos = random.nextInt(text.length());
+							int length = random.nextInt(text.length() - pos + 1);
+							String region = text.substring(pos, pos + length);
+							assertEquals(new EditTree(region).regionHash(0, length), copy.regionHash(pos, length));
+							assertEquals(text.codePointCount(0, text.length()), copy.codePointCount());
+							seen++;
+						}
+						return seen;
+					}));
+				}
+				Future<?> writer = pool.submit(() -> {
+					try {
+						Random random = new Random(-1);
+						for (int i = 0; i < WRITES; i++) {
+							String line = "w" + i + ((i % 5 == 0) ? "\uD83D\uDE00" : "") + "\n";
+							doc.write(t -> {
+								// at a line start, so never inside a pair
+								t.add(line, t.lineStart(random.nextInt(t.lineCount())));
+								int last = t.lineStart(t.lineCount() - 2);
+								t.delete(last, t.size() - last);
+								if (random.nextInt(4) == 0) {
+									// some versions come out hashed, and
+									// some not
+									t.regionHash(0, t.size());
+								}
+							});
+						}
+					} finally {
+						done.set(true);
+					}
+				});
+				writer.get();
+				for (Future<Long> reader : readers) {
+					assertTrue(reader.get() > 0);
+				}
+			} finally {
+				done.set(true);
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void copiesOfAVersionDoNotChangeIt() {
+		Document doc = new Document(new EditTree("abc"));
+		Version v = doc.read();
+		EditTree copy = v.copy();
+		copy.add('x', 1);
+		copy.delete(3);
+		doc.write(t -> t.add('d'));
+		assertEquals("axb", copy.toString());
+		assertEquals("abc", v.toString());
+		assertEquals("abcd", doc.read().toString());
+	}
+}
@@ -0,0 +1,206 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that find with an n-gram index agrees with indexOf on a
+ * StringBuilder given the same edits, in trees of one character per node and
+ * chunked ones, and checks the index itself: edits mark only the blocks they
+ * touch stale, and blocks that grow too long or too short are cut again.
+ */
+public class GramIndexTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks the blocks of index against a tree of the given size: their
+	 * lengths add up to it, each is within bounds, and start and blockOf
+	 * agree with them
+	 */
+	private static void checkBlocks(GramIndex index, int size) {
+		int start = 0;
+		for (int b = 0; b < index.blocks(); b++) {
+			int length = index.length(b);
+			assertEquals(start, index.start(b));
+			assertTrue(length > 0 && length <= GramIndex.MAX_BLOCK, "block " + b + " of " + length);
+			assertTrue(length >= GramIndex.MIN_BLOCK || index.blocks() == 1, "block " + b + " of " + length);
+			assertEquals(b, index.blockOf(start));
+			assertEquals(b, index.blockOf(start + length - 1));
+			start += length;
+		}
+		assertEquals(size, start);
+	}
+
+	/**
+	 * Brings every filter of index up to date from tree
+	 */
+	private static void refreshAll(GramIndex index, EditTree tree) {
+		int[] grams = index.grams("abcdefgh");
+		for (int b = 0; b < index.blocks(); b++) {
+			index.mayStart(tree.getRoot(), tree.size(), b, index.start(b), grams, 8);
+			assertFalse(index.isStale(b));
+		}
+	}
+
+	/**
+	 * Checks finds of strings that occur, and of some that may not, against
+	 * indexOf
+	 */
+	private static void checkFinds(EditTree tree, StringBuilder model, Random random) {
+		String text = model.toString();
+		for (int i = 0; i < 20; i++) {
+			int pos = random.nextInt(Math.max(text.length() - 10, 1));
+			String s = text.substring(pos, Math.min(pos + 1 + random.nextInt(10), text.length()));
+			int from = random.nextInt(text.length() + 1);
+			assertEquals(text.indexOf(s), tree.find(s));
+			assertEquals(text.indexOf(s, from), tree.find(s, from));
+			String other = GramIndexTest.text(4, random.nextLong());
+			assertEquals(text.indexOf(other), tree.find(other));
+		}
+	}
+
+	@Test
+	public void findsFollowTheEdits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = GramIndexTest.text(10 * GramIndex.BLOCK, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			tree.keepIndex(3);
+			tree.keepHistory(100, 1 << 20);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			GramIndexTest.checkFinds(tree, model, random);
+			for (int i = 0; i < 400; i++) {
+				int pos = random.nextInt(model.length() + 1);
+				int length = Math.min(random.nextInt(50), model.length() - pos);
+				switch (random.nextInt(8)) {
+				case 0:
+					tree.add('q', pos);
+					model.insert(pos, 'q');
+					break;
+				case 1:
+					if (pos < model.length()) {
+						tree.delete(pos);
+						model.deleteCharAt(pos);
+					}
+					break;
+				case 2:
+					// enough to push a block past its longest
+					String s = GramIndexTest.text(random.nextInt(2 * GramIndex.BLOCK), i);
+					tree.add(s, pos);
+					model.insert(pos, s);
+					break;
+				case 3:
+					// enough to empty blocks
+					length = Math.min(random.nextInt(2 * GramIndex.BLOCK), model.length() - pos);
+					tree.delete(pos, length);
+					model.delete(pos, pos + length);
+					break;
+				case 4:
+					String r = GramIndexTest.text(random.nextInt(50), -i);
+					tree.replace(pos, length, r);
+					model.replace(pos, pos + length, r);
+					break;
+				case 5:
+					EditTree rest = tree.split(pos);
+					tree.concatenate(new EditTree("xyz", chunkSize));
+					tree.concatenate(rest);
+					model.insert(pos, "xyz");
+					break;
+				case 6:
+					tree.applyBatch(Arrays.asList(Edit.insert(pos, "jkl"), Edit.delete(pos, length)));
+					model.replace(pos, pos + length, "jkl");
+					break;
+				default:
+					EditTree.Cursor cursor = tree.cursor(pos);
+					cursor.insert('w');
+					model.insert(pos, 'w');
+				}
+				if (model.length() < GramIndex.BLOCK) {
+					String more = GramIndexTest.text(4 * GramIndex.BLOCK, -i);
+					tree.add(more, 0);
+					model.insert(0, more);
+				}
+				GramIndexTest.checkFinds(tree, model, random);
+			}
+			// undo puts back text the filters have to find again
+			for (int i = 0; i < 20 && tree.undo(); i++) {
+				String back = tree.toString();
+				model.replace(0, model.length(), back);
+				GramIndexTest.checkFinds(tree, model, random);
+			}
+		}
+	}
+
+	@Test
+	public void editsMarkOnlyTheirBlocksStale() {
+		String text = GramIndexTest.text(20 * GramIndex.BLOCK, 1);
+		EditTree tree = new EditTree(text);
+		GramIndex index = new GramIndex(4, tree.size());
+		GramIndexTest.checkBlocks(index, tree.size());
+		for (int b = 0; b < index.blocks(); b++) {
+			assertTrue(index.isStale(b));
+		}
+		GramIndexTest.refreshAll(index, tree);
+		Random random = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			int block = random.nextInt(index.blocks());
+			// a small edit inside the block, away from its ends
+			int pos = index.start(block) + 10 + random.nextInt(index.length(block) - 20);
+			tree.delete(pos, 3);
+			tree.add("abcde", pos);
+			index.replaced(pos, 3, 5);
+			GramIndexTest.checkBlocks(index, tree.size());
+			for (int b = 0; b < index.blocks(); b++) {
+				assertEquals(b == block, index.isStale(b), "block " + b + " after an edit in " + block);
+			}
+			GramIndexTest.refreshAll(index, tree);
+		}
+		// an edit at the start of a block also changes the n-grams that run
+		// into it from the block before
+		int pos = index.start(5);
+		tree.add('z', pos);
+		index.replaced(pos, 0, 1);
+		assertTrue(index.isStale(4));
+		assertTrue(index.isStale(5));
+		assertFalse(index.isStale(6));
+	}
+
+	@Test
+	public void blocksAreCutAgainWhenUneven() {
+		Random random = new Random(2);
+		int size = 10 * GramIndex.BLOCK;
+		GramIndex index = new GramIndex(3, size);
+		for (int i = 0; i < 3000; i++) {
+			int pos = random.nextInt(size + 1);
+			int removed = Math.min(random.nextInt(3 * GramIndex.BLOCK), size - pos);
+			int added = random.nextInt(3 * GramIndex.BLOCK);
+			if (size > 30 * GramIndex.BLOCK) {
+				added = 0;
+			}
+			index.replaced(pos, removed, added);
+			size += added - removed;
+			GramIndexTest.checkBlocks(index, size);
+		}
+		// emptied and filled again
+		index.replaced(0, size, 0);
+		assertEquals(0, index.blocks());
+		index.replaced(0, 0, 3 * GramIndex.BLOCK);
+		GramIndexTest.checkBlocks(index, 3 * GramIndex.BLOCK);
+	}
+}
@@ -0,0 +1,217 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks undo and redo against the texts a StringBuilder went through with
+ * the same edits, in trees of one character per node and chunked ones, and
+ * checks that typing runs go into one entry and that the history keeps to its
+ * limits.
+ */
+public class HistoryTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private static void check(EditTree tree, String text) {
+		assertEquals(text, tree.toString());
+		assertEquals(text.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		assertEquals(text.split("\n", -1).length, tree.lineCount());
+	}
+
+	/**
+	 * Makes one undoable edit to both tree and model: a range edit, or a run
+	 * of typing or deleting at one spot, which the history keeps as one entry
+	 */
+	private static void edit(EditTree tree, StringBuilder model, Random random, boolean run) {
+		// every edit changes something, since one that changes nothing may
+		// not be kept
+		int pos = random.nextInt(model.length());
+		int length = Math.min(1 + random.nextInt(20), model.length() - pos);
+		if (run) {
+			switch (random.nextInt(3)) {
+			case 0:
+				for (int i = 0; i < 1 + random.nextInt(10); i++) {
+					char ch = (char) ('a' + random.nextInt(26));
+					tree.add(ch, pos);
+					model.insert(pos++, ch);
+				}
+				return;
+			case 1:
+				for (int i = 0; i < length; i++) {
+					assertEquals(model.charAt(pos), tree.delete(pos));
+					model.deleteCharAt(pos);
+				}
+				return;
+			default:
+				for (int i = 0; i < length && pos > 0; i++) {
+					assertEquals(model.charAt(pos - 1), tree.delete(pos - 1));
+					model.deleteCharAt(--pos);
+				}
+				return;
+			}
+		}
+		switch (random.nextInt(4)) {
+		case 0:
+			String s = HistoryTest.text(1 + random.nextInt(30), pos);
+			tree.add(s, pos);
+			model.insert(pos, s);
+			break;
+		case 1:
+			assertEquals(model.substring(pos, pos + length), tree.delete(pos, length));
+			model.delete(pos, pos + length);
+			break;
+		case 2:
+			String r = HistoryTest.text(1 + random.nextInt(30), -pos);
+			assertEquals(model.substring(pos, pos + length), tree.replace(pos, length, r));
+			model.replace(pos, pos + length, r);
+			break;
+		default:
+			String tail = HistoryTest.text(1 + random.nextInt(30), length);
+			tree.concatenate(new EditTree(tail, 4));
+			model.append(tail);
+		}
+	}
+
+	@Test
+	public void undoAndRedoRetraceTheEdits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = HistoryTest.text(3000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			tree.keepHistory(1000, Long.MAX_VALUE);
+			StringBuilder model = new StringBuilder(text);
+			List<String> texts = new ArrayList<>();
+			texts.add(text);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 400; i++) {
+				// a range edit between runs keeps each run in an entry of its own
+				HistoryTest.edit(tree, model, random, i % 2 == 1);
+				if (!model.toString().equals(texts.get(texts.size() - 1))) {
+					texts.add(model.toString());
+				} else {
+					// an empty run records nothing
+					i++;
+					HistoryTest.edit(tree, model, random, false);
+					texts.add(model.toString());
+				}
+			}
+			for (int i = texts.size() - 2; i >= 0; i--) {
+				assertTrue(tree.undo());
+				HistoryTest.check(tree, texts.get(i));
+			}
+			assertFalse(tree.undo());
+			for (int i = 1; i < texts.size(); i++) {
+				assertTrue(tree.redo());
+				HistoryTest.check(tree, texts.get(i));
+			}
+			assertFalse(tree.redo());
+		}
+	}
+
+	@Test
+	public void undoingAndEditingInTurn() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = HistoryTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			tree.keepHistory(1000, Long.MAX_VALUE);
+			StringBuilder model = new StringBuilder(text);
+			List<String> texts = new ArrayList<>();
+			texts.add(text);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 1000; i++) {
+				if (texts.size() > 1 && random.nextInt(3) == 0) {
+					assertTrue(tree.undo());
+					texts.remove(texts.size() - 1);
+					model.replace(0, model.length(), texts.get(texts.size() - 1));
+				} else {
+					HistoryTest.edit(tree, model, random, false);
+					texts.add(model.toString());
+				}
+				HistoryTest.check(tree, model.toString());
+			}
+			// an edit after an undo leaves nothing to redo
+			assertFalse(tree.redo());
+		}
+	}
+
+	@Test
+	public void typingRunsAreOneEntry() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("0123456789", chunkSize);
+			tree.keepHistory(100, 1000);
+			for (int i = 0; i < 5; i++) {
+				tree.add("hello".charAt(i), 3 + i);
+			}
+			// taking back some of what was typed, then a delete-key run
+			tree.delete(7);
+			tree.delete(6);
+			tree.add("XY", 0);
+			tree.delete(5);
+			tree.delete(5);
+			tree.delete(5);
+			assertEquals("XY0123456789", tree.toString());
+			assertTrue(tree.undo());
+			assertEquals("XY012hel3456789", tree.toString());
+			assertTrue(tree.undo());
+			assertEquals("012hel3456789", tree.toString());
+			assertTrue(tree.undo());
+			assertEquals("0123456789", tree.toString());
+			assertFalse(tree.undo());
+			assertTrue(tree.redo());
+			assertTrue(tree.redo());
+			assertTrue(tree.redo());
+			assertEquals("XY0123456789", tree.toString());
+		}
+	}
+
+	@Test
+	public void historyKeepsToItsLimits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			// by entries: only the last three edits can be undone
+			EditTree tree = new EditTree("abcdefgh", chunkSize);
+			tree.keepHistory(3, Long.MAX_VALUE);
+			for (int i = 0; i < 6; i++) {
+				tree.add(String.valueOf(i), 0);
+			}
+			for (int i = 0; i < 3; i++) {
+				assertTrue(tree.undo());
+			}
+			assertFalse(tree.undo());
+			assertEquals("210abcdefgh", tree.toString());
+
+			// by characters: deleting more than the history holds forgets the
+			// older deletes first
+			String text = HistoryTest.text(1000, chunkSize);
+			tree = new EditTree(text, chunkSize);
+			tree.keepHistory(100, 250);
+			tree.delete(0, 200);
+			tree.delete(0, 200);
+			assertTrue(tree.undo());
+			assertEquals(text.substring(200), tree.toString());
+			assertFalse(tree.undo());
+
+			// and none at all once stopped
+			tree.keepHistory(0, 0);
+			tree.add('x');
+			assertFalse(tree.undo());
+		}
+	}
+}
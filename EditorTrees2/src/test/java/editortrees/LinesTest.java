@@ -0,0 +1,147 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks lineCount, lineStart, lineOf and getLine against the lines of a
+ * StringBuilder holding the same text, through every kind of edit, in trees
+ * of one character per node and chunked ones.
+ */
+public class LinesTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	/**
+	 * @return text with a newline every few characters, and runs of them
+	 */
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(6) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks every line of tree against model
+	 */
+	private static void check(EditTree tree, StringBuilder model) {
+		String text = model.toString();
+		assertEquals(text, tree.toString());
+		String[] lines = text.split("\n", -1);
+		assertEquals(lines.length, tree.lineCount());
+		int start = 0;
+		for (int line = 0; line < lines.length; line++) {
+			assertEquals(start, tree.lineStart(line));
+			assertEquals(lines[line], tree.getLine(line));
+			// every position of the line, and the newline ending it
+			for (int pos = start; pos <= start + lines[line].length(); pos++) {
+				assertEquals(line, tree.lineOf(pos));
+			}
+			start += lines[line].length() + 1;
+		}
+	}
+
+	@Test
+	public void editsKeepTheLines() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = LinesTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			LinesTest.check(tree, model);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 3000; i++) {
+				int pos = random.nextInt(model.length() + 1);
+				int length = Math.min(random.nextInt(20), model.length() - pos);
+				switch (random.nextInt(7)) {
+				case 0:
+					char ch = random.nextBoolean() ? '\n' : 'x';
+					tree.add(ch, pos);
+					model.insert(pos, ch);
+					break;
+				case 1:
+					if (pos < model.length()) {
+						assertEquals(model.charAt(pos), tree.delete(pos));
+						model.deleteCharAt(pos);
+					}
+					break;
+				case 2:
+					String s = LinesTest.text(random.nextInt(20), i);
+					tree.add(s, pos);
+					model.insert(pos, s);
+					break;
+				case 3:
+					assertEquals(model.substring(pos, pos + length), tree.delete(pos, length));
+					model.delete(pos, pos + length);
+					break;
+				case 4:
+					String r = LinesTest.text(random.nextInt(20), -i);
+					tree.replace(pos, length, r);
+					model.replace(pos, pos + length, r);
+					break;
+				case 5:
+					EditTree rest = tree.split(pos);
+					tree.concatenate(new EditTree("\n\n", chunkSize));
+					tree.concatenate(rest);
+					model.insert(pos, "\n\n");
+					break;
+				default:
+					tree.applyBatch(Arrays.asList(Edit.insert(pos, "\n"), Edit.replace(pos, length, "y\n")));
+					model.replace(pos, pos + length, "\ny\n");
+				}
+				if (i % 100 == 0) {
+					LinesTest.check(tree, model);
+				}
+			}
+			LinesTest.check(tree, model);
+		}
+	}
+
+	@Test
+	public void cursorEditsKeepTheLines() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = LinesTest.text(500, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			EditTree.Cursor cursor = tree.cursor(250);
+			int pos = 250;
+			for (int i = 0; i < 300; i++) {
+				if (i % 3 == 2 && pos > 0) {
+					assertEquals(model.charAt(pos - 1), cursor.backspace());
+					model.deleteCharAt(--pos);
+				} else {
+					char ch = (i % 4 == 0) ? '\n' : 'z';
+					cursor.insert(ch);
+					model.insert(pos++, ch);
+				}
+			}
+			LinesTest.check(tree, model);
+		}
+	}
+
+	@Test
+	public void endsOfTheText() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("", chunkSize);
+			LinesTest.check(tree, new StringBuilder());
+			assertEquals(1, tree.lineCount());
+			tree = new EditTree("\nab\n\n", chunkSize);
+			LinesTest.check(tree, new StringBuilder("\nab\n\n"));
+			assertEquals("", tree.getLine(3));
+			assertEquals(5, tree.lineStart(3));
+			EditTree t = tree;
+			assertThrows(IndexOutOfBoundsException.class, () -> t.lineStart(4));
+			assertThrows(IndexOutOfBoundsException.class, () -> t.lineStart(-1));
+			assertThrows(IndexOutOfBoundsException.class, () -> t.getLine(4));
+			assertThrows(IndexOutOfBoundsException.class, () -> t.lineOf(6));
+			assertThrows(IndexOutOfBoundsException.class, () -> t.lineOf(-1));
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks regionHash and regionEquals against hashes worked out from a
+ * StringBuilder holding the same text, through every kind of edit, in trees
+ * of one character per node and chunked ones, and checks that find agrees
+ * with indexOf.
+ */
+public class RegionHashTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	/**
+	 * @return text of a few letters, so that ranges often repeat
+	 */
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(3)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the hash of s from start to end, from its definition
+	 */
+	private static long hash(CharSequence s, int start, int end) {
+		long hash = 0;
+		long power = 1;
+		for (int i = start; i < end; i++) {
+			hash = PolyHash.add(hash, PolyHash.multiply(s.charAt(i), power));
+			power = PolyHash.multiply(power, PolyHash.BASE);
+		}
+		return hash;
+	}
+
+	private static void check(EditTree tree, StringBuilder model, Random random) {
+		assertEquals(model.toString(), tree.toString());
+		assertEquals(RegionHashTest.hash(model, 0, model.length()), tree.regionHash(0, tree.size()));
+		for (int i = 0; i < 50; i++) {
+			int pos = random.nextInt(model.length() + 1);
+			int length = random.nextInt(model.length() - pos + 1);
+			assertEquals(RegionHashTest.hash(model, pos, pos + length), tree.regionHash(pos, length));
+			// short ranges, which often match
+			int other = random.nextInt(model.length() + 1);
+			int shortLength = Math.min(random.nextInt(4), model.length() - Math.max(pos, other));
+			String first = model.substring(pos, pos + shortLength);
+			boolean same = first.equals(model.substring(other, other + shortLength));
+			assertEquals(same, tree.regionEquals(pos, other, shortLength));
+		}
+	}
+
+	@Test
+	public void hashesFollowTheEdits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = RegionHashTest.text(3000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			RegionHashTest.check(tree, model, random);
+			EditTree.Cursor cursor = tree.cursor(0);
+			for (int i = 0; i < 3000; i++) {
+				int pos = random.nextInt(model.length() + 1);
+				int length = Math.min(random.nextInt(20), model.length() - pos);
+				switch (random.nextInt(6)) {
+				case 0:
+					tree.add('c', pos);
+					model.insert(pos, 'c');
+					break;
+				case 1:
+					if (pos < model.length()) {
+						assertEquals(model.charAt(pos), tree.delete(pos));
+						model.deleteCharAt(pos);
+					}
+					break;
+				case 2:
+					String r = RegionHashTest.text(random.nextInt(20), i);
+					tree.replace(pos, length, r);
+					model.replace(pos, pos + length, r);
+					break;
+				case 3:
+					EditTree rest = tree.split(pos);
+					tree.concatenate(new EditTree("ab", chunkSize));
+					tree.concatenate(rest);
+					model.insert(pos, "ab");
+					break;
+				case 4:
+					cursor.moveTo(pos);
+					cursor.insert('b');
+					model.insert(pos, 'b');
+					break;
+				default:
+					// hashes asked of a snapshot, then the tree edited, which
+					// leaves the snapshot's hashes as they were
+					EditTree snapshot = tree.snapshot();
+					long before = snapshot.regionHash(0, snapshot.size());
+					tree.add('a', pos);
+					model.insert(pos, 'a');
+					assertEquals(before, snapshot.regionHash(0, snapshot.size()));
+				}
+				if (i % 100 == 0) {
+					RegionHashTest.check(tree, model, random);
+				}
+			}
+			RegionHashTest.check(tree, model, random);
+		}
+	}
+
+	@Test
+	public void equalTextHashesEquallyInAnyTree() {
+		String text = RegionHashTest.text(2000, 5);
+		EditTree one = new EditTree(text, 1);
+		EditTree chunked = new EditTree(text, 8);
+		EditTree typed = new EditTree("", 64);
+		for (int i = text.length() - 1; i >= 0; i--) {
+			typed.add(text.charAt(i), 0);
+		}
+		for (int pos = 0; pos < text.length(); pos += 97) {
+			int length = Math.min(300, text.length() - pos);
+			assertEquals(one.regionHash(pos, length), chunked.regionHash(pos, length));
+			assertEquals(one.regionHash(pos, length), typed.regionHash(pos, length));
+		}
+	}
+
+	@Test
+	public void findAgreesWithIndexOf() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = RegionHashTest.text(5000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 300; i++) {
+				int pos = random.nextInt(text.length());
+				int end = Math.min(pos + 1 + random.nextInt(12), text.length());
+				String s = (i % 3 == 0) ? "abcabcab" : text.substring(pos, end);
+				int from = random.nextInt(text.length() + 1);
+				assertEquals(text.indexOf(s), tree.find(s));
+				assertEquals(text.indexOf(s, from), tree.find(s, from));
+			}
+		}
+	}
+
+	@Test
+	public void rangesOutsideThrow() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("abcabc", chunkSize);
+			assertEquals(tree.regionHash(0, 3), tree.regionHash(3, 3));
+			assertEquals(0, tree.regionHash(6, 0));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.regionHash(-1, 2));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.regionHash(4, 3));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.regionHash(0, -1));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.regionEquals(0, 4, 3));
+		}
+	}
+}
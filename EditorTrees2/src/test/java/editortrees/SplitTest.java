@@ -0,0 +1,132 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks split against a StringBuilder holding the same text, in trees of one
+ * character per node and chunked ones: both halves must hold the right text
+ * and be balanced trees with the right sizes, heights and ranks.
+ */
+public class SplitTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((random.nextInt(30) == 0) ? '\n' : (char) ('a' + random.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private static void check(EditTree tree, String text) {
+		assertEquals(text, tree.toString());
+		assertEquals(text.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		assertTrue(tree.height() <= 1.45 * Math.log(tree.size() + 2) / Math.log(2), "height " + tree.height());
+		for (int i = 0; i < text.length(); i += 37) {
+			assertEquals(text.charAt(i), tree.get(i));
+		}
+		assertEquals(text.split("\n", -1).length, tree.lineCount());
+	}
+
+	@Test
+	public void halvesHoldEachSide() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = SplitTest.text(3000, chunkSize);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 200; i++) {
+				EditTree tree = new EditTree(text, chunkSize);
+				int pos = (i < 2) ? i * text.length() : random.nextInt(text.length() + 1);
+				EditTree rest = tree.split(pos);
+				SplitTest.check(tree, text.substring(0, pos));
+				SplitTest.check(rest, text.substring(pos));
+			}
+		}
+	}
+
+	@Test
+	public void concatenateUndoesSplit() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = SplitTest.text(5000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			Random random = new Random(chunkSize);
+			int rotations = tree.totalRotationCount();
+			for (int i = 0; i < 300; i++) {
+				EditTree rest = tree.split(random.nextInt(text.length() + 1));
+				tree.concatenate(rest);
+				assertEquals(0, rest.size());
+			}
+			SplitTest.check(tree, text);
+			assertTrue(tree.totalRotationCount() > rotations, "split and join counted no rotations");
+		}
+	}
+
+	@Test
+	public void splitsInterleaveWithEdits() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = SplitTest.text(2000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			StringBuilder model = new StringBuilder(text);
+			Random random = new Random(chunkSize);
+			for (int i = 0; i < 2000; i++) {
+				int pos = random.nextInt(model.length() + 1);
+				switch (random.nextInt(3)) {
+				case 0:
+					tree.add('x', pos);
+					model.insert(pos, 'x');
+					break;
+				case 1:
+					if (pos < model.length()) {
+						assertEquals(model.charAt(pos), tree.delete(pos));
+						model.deleteCharAt(pos);
+					}
+					break;
+				default:
+					// cut a piece out and put it back at the other end
+					EditTree rest = tree.split(pos);
+					rest.concatenate(tree);
+					tree = rest;
+					model.replace(0, model.length(), model.substring(pos) + model.substring(0, pos));
+				}
+				if (i % 100 == 0) {
+					SplitTest.check(tree, model.toString());
+				}
+			}
+			SplitTest.check(tree, model.toString());
+		}
+	}
+
+	@Test
+	public void splitLeavesSnapshotsAlone() {
+		for (int chunkSize : CHUNK_SIZES) {
+			String text = SplitTest.text(1000, chunkSize);
+			EditTree tree = new EditTree(text, chunkSize);
+			EditTree snapshot = tree.snapshot();
+			EditTree rest = tree.split(400);
+			rest.add('y', 0);
+			tree.add('z', 0);
+			SplitTest.check(snapshot, text);
+			SplitTest.check(tree, "z" + text.substring(0, 400));
+			SplitTest.check(rest, "y" + text.substring(400));
+		}
+	}
+
+	@Test
+	public void positionsOutsideThrow() {
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = new EditTree("abc", chunkSize);
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.split(-1));
+			assertThrows(IndexOutOfBoundsException.class, () -> tree.split(4));
+			SplitTest.check(tree, "abc");
+		}
+	}
+}
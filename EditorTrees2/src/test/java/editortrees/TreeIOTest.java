@@ -0,0 +1,217 @@
+package editortrees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that reading and mapping text into trees, and writing it out again,
+ * gives back the same characters, in trees of one character per node and
+ * chunked ones. Characters of several bytes and surrogate pairs are put where
+ * blocks, buffers and mapped windows end, including the real 64 MB window.
+ */
+public class TreeIOTest {
+
+	private static final int[] CHUNK_SIZES = { 1, 8 };
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * @return text of one to four UTF-8 bytes a character, with pairs
+	 */
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		while (sb.length() < length) {
+			switch (random.nextInt(12)) {
+			case 0:
+				sb.append('\n');
+				break;
+			case 1:
+				sb.append((char) (0xE0 + random.nextInt(32)));
+				break;
+			case 2:
+				sb.append((char) (0x4E00 + random.nextInt(1000)));
+				break;
+			case 3:
+				sb.appendCodePoint(0x1F600 + random.nextInt(80));
+				break;
+			default:
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void check(EditTree tree, String text, int chunkSize) throws IOException {
+		assertEquals(text, tree.toString());
+		assertEquals(text.length(), tree.size());
+		assertEquals(tree.slowSize(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		assertEquals(text.split("\n", -1).length, tree.lineCount());
+		EditTree built = new EditTree(text, chunkSize);
+		if (text.length() > 0) {
+			assertEquals(built.regionHash(0, text.length()), tree.regionHash(0, tree.size()));
+		}
+		// and out again
+		StringWriter chars = new StringWriter();
+		tree.writeTo(chars);
+		assertEquals(text, chars.toString());
+		for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			tree.writeTo(Channels.newChannel(bytes), charset);
+			assertEquals(text, new String(bytes.toByteArray(), charset));
+		}
+	}
+
+	/**
+	 * A reader that gives back fewer characters than asked for, so that reads
+	 * end at odd places
+	 */
+	private static Reader shortReads(String text, long seed) {
+		Random random = new Random(seed);
+		return new StringReader(text) {
+			@Override
+			public int read(char[] buffer, int offset, int length) throws IOException {
+				return super.read(buffer, offset, Math.min(length, 1 + random.nextInt(5000)));
+			}
+		};
+	}
+
+	@Test
+	public void readsGiveBackTheText() throws IOException {
+		for (int chunkSize : CHUNK_SIZES) {
+			for (int length : new int[] { 0, 1, 1000, (1 << 16) - 1, 1 << 16, (1 << 16) + 1, 300000 }) {
+				String text = TreeIOTest.text(length, length + chunkSize);
+				TreeIOTest.check(EditTree.read(new StringReader(text), chunkSize), text, chunkSize);
+				TreeIOTest.check(EditTree.read(TreeIOTest.shortReads(text, length), chunkSize), text, chunkSize);
+				for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.UTF_16BE }) {
+					ByteArrayInputStream in = new ByteArrayInputStream(text.getBytes(charset));
+					TreeIOTest.check(EditTree.read(Channels.newChannel(in), charset, chunkSize), text, chunkSize);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void mapsAcrossWindows() throws IOException {
+		String text = TreeIOTest.text(100000, 3);
+		Path file = this.dir.resolve("text");
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		try (FileChannel in = FileChannel.open(file)) {
+			for (int chunkSize : CHUNK_SIZES) {
+				TreeIOTest.check(EditTree.map(in, StandardCharsets.UTF_8, chunkSize), text, chunkSize);
+				// windows that cut characters of every length apart
+				for (int window : new int[] { 4, 5, 7, 1000, 4099, 65537 }) {
+					EditTree tree = TreeIO.map(in, StandardCharsets.UTF_8, chunkSize, null, window);
+					TreeIOTest.check(tree, text, chunkSize);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void malformedBytesAreReplaced() throws IOException {
+		byte[] bytes = { 'a', (byte) 0xE4, (byte) 0xB8, 'b', (byte) 0xFF, 'c' };
+		String text = new String(bytes, StandardCharsets.UTF_8);
+		for (int chunkSize : CHUNK_SIZES) {
+			EditTree tree = EditTree.read(Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8,
+					chunkSize);
+			TreeIOTest.check(tree, text, chunkSize);
+		}
+		assertThrows(IllegalArgumentException.class, () -> EditTree.read(new StringReader("x"), 0));
+	}
+
+	/**
+	 * Maps a file a little longer than the window, with a three-byte
+	 * character and a pair cut apart by the window's end. Only a chunked tree
+	 * is built, since one of a node per character would take gigabytes.
+	 */
+	@Test
+	public void mapsAcrossTheRealWindow() throws IOException {
+		Path file = this.dir.resolve("large");
+		CRC32 written = new CRC32();
+		int before = TreeIO.WINDOW - 2;
+		String boundary = "\u4E2D\uD83D\uDE00";
+		String tail = TreeIOTest.text(5000, 4);
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			byte[] block = new byte[1 << 16];
+			for (int pos = 0; pos < before; pos += block.length) {
+				int length = Math.min(block.length, before - pos);
+				for (int i = 0; i < length; i++) {
+					block[i] = TreeIOTest.filler(pos + i);
+				}
+				TreeIOTest.write(out, ByteBuffer.wrap(block, 0, length), written);
+			}
+			TreeIOTest.write(out, ByteBuffer.wrap((boundary + tail).getBytes(StandardCharsets.UTF_8)), written);
+		}
+		EditTree tree;
+		try (FileChannel in = FileChannel.open(file)) {
+			tree = EditTree.map(in, StandardCharsets.UTF_8, 64);
+		}
+		assertEquals(before + boundary.length() + tail.length(), tree.size());
+		assertEquals(tree.slowHeight(), tree.height());
+		StringBuilder around = new StringBuilder();
+		for (int pos = before - 100; pos < before; pos++) {
+			around.append((char) TreeIOTest.filler(pos));
+		}
+		around.append(boundary).append(tail, 0, 100);
+		assertEquals(around.toString(), tree.get(before - 100, around.length()));
+		assertEquals(tail, tree.get(tree.size() - tail.length(), tail.length()));
+		// everything, written out again
+		CRC32 read = new CRC32();
+		tree.writeTo(new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int n = src.remaining();
+				read.update(src);
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		}, StandardCharsets.UTF_8);
+		assertEquals(written.getValue(), read.getValue());
+	}
+
+	/**
+	 * @return the ASCII byte at pos in the large file, lines of 80
+	 */
+	private static byte filler(int pos) {
+		return (byte) ((pos % 80 == 79) ? '\n' : 'a' + pos % 26);
+	}
+
+	private static void write(FileChannel out, ByteBuffer bytes, CRC32 crc) throws IOException {
+		crc.update(bytes.duplicate());
+		while (bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package editortrees.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Times building whole trees: from a string, with the default one character
+ * a node and with chunks, and as a copy of another tree. Each benchmark only
+ * builds the state it uses, so the default constructor is not timed once per
+ * chunk size. Copying 100M characters of single-character nodes holds two
+ * whole trees and wants a bigger heap than the one given here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class BuildBenchmark {
+
+	/**
+	 * The text to build from
+	 */
+	@State(Scope.Thread)
+	public static class Text {
+
+		@Param({ "1000", "100000", "10000000", "100000000" })
+		public int size;
+
+		String text;
+
+		@Setup(Level.Trial)
+		public void build() {
+			this.text = Texts.document(this.size);
+		}
+	}
+
+	/**
+	 * The text, and a tree of it to copy, in chunks of a given size
+	 */
+	@State(Scope.Thread)
+	public static class Chunked {
+
+		@Param({ "1000", "100000", "10000000", "100000000" })
+		public int size;
+
+		@Param({ "1", "64" })
+		public int chunkSize;
+
+		String text;
+		EditTree tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			this.text = Texts.document(this.size);
+			this.tree = new EditTree(this.text, this.chunkSize);
+		}
+	}
+
+	@Benchmark
+	public EditTree fromStringDefault(Text t) {
+		return new EditTree(t.text);
+	}
+
+	@Benchmark
+	public EditTree fromString(Chunked c) {
+		return new EditTree(c.text, c.chunkSize);
+	}
+
+	@Benchmark
+	public EditTree copy(Chunked c) {
+		return new EditTree(c.tree);
+	}
+}
@@ -0,0 +1,71 @@
+package editortrees.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Times concatenating blocks onto the end of a document. The blocks are split
+ * back off after each invocation, outside the timing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ConcatenateBenchmark {
+
+	// blocks concatenated per invocation
+	static final int BLOCKS = 100;
+	// characters in each block
+	static final int BLOCK = 1000;
+
+	@Param({ "1000", "100000", "10000000", "100000000" })
+	public int size;
+
+	@Param({ "1", "64" })
+	public int chunkSize;
+
+	private EditTree tree;
+	private EditTree[] blocks = new EditTree[BLOCKS];
+
+	@Setup(Level.Trial)
+	public void build() {
+		this.tree = new EditTree(Texts.document(this.size), this.chunkSize);
+		String block = Texts.document(BLOCK);
+		for (int i = 0; i < BLOCKS; i++) {
+			this.blocks[i] = new EditTree(block, this.chunkSize);
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void splitOff() {
+		for (int i = BLOCKS - 1; i >= 0; i--) {
+			this.blocks[i] = this.tree.split(this.tree.size() - BLOCK);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCKS)
+	public void concatenate() {
+		for (int i = 0; i < BLOCKS; i++) {
+			this.tree.concatenate(this.blocks[i]);
+		}
+	}
+}
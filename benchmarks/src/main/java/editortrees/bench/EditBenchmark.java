@@ -0,0 +1,247 @@
+package editortrees.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.ArrayEditTree;
+import editortrees.EditTree;
+
+/**
+ * Times single-character adds and deletes. Each invocation makes EDITS edits
+ * and they are undone after it, outside the timing, so the document keeps the
+ * same size and much the same shape however long the benchmark runs. The
+ * undoing is still counted by the gc profiler, so the allocation it reports
+ * for deletes includes the nodes made putting the characters back.
+ * 
+ * EditBenchmark.Arrays makes the same edits on an ArrayEditTree, to compare
+ * the arrays with the nodes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class EditBenchmark {
+
+	// edits timed per invocation, enough to dwarf the cost of the undo hooks
+	static final int EDITS = 100;
+	// random positions drawn ahead of time, used in turn
+	private static final int POSITIONS = 1 << 16;
+
+	/**
+	 * Characters in the document. A tree of single-character nodes needs
+	 * about 40 bytes a character, so the largest size takes half the heap at
+	 * a chunk size of 1.
+	 */
+	@Param({ "1000", "100000", "10000000", "100000000" })
+	public int size;
+
+	/**
+	 * The most characters a node holds; 1 is the tree new EditTree(String)
+	 * builds
+	 */
+	@Param({ "1", "64" })
+	public int chunkSize;
+
+	private EditTree tree;
+	private int[] positions;
+	private int next;
+	// where each edit of the last invocation was made, and what the deletes
+	// took out, so that they can be undone
+	private int[] at = new int[EDITS];
+	private char[] deleted = new char[EDITS];
+	private boolean deleting;
+
+	@Setup(Level.Trial)
+	public void build() {
+		this.tree = new EditTree(Texts.document(this.size), this.chunkSize);
+		// the document only shrinks by EDITS during an invocation
+		this.positions = Texts.positions(POSITIONS, this.size - EDITS, 17);
+	}
+
+	@TearDown(Level.Invocation)
+	public void undo() {
+		for (int i = EDITS - 1; i >= 0; i--) {
+			if (this.deleting) {
+				this.tree.add(this.deleted[i], this.at[i]);
+			} else {
+				this.tree.delete(this.at[i]);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EDITS)
+	public void addEnd() {
+		int start = this.tree.size();
+		for (int i = 0; i < EDITS; i++) {
+			this.tree.add('x');
+			this.at[i] = start + i;
+		}
+		this.deleting = false;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EDITS)
+	public void addRandom() {
+		for (int i = 0; i < EDITS; i++) {
+			int pos = this.position();
+			this.tree.add('x', pos);
+			this.at[i] = pos;
+		}
+		this.deleting = false;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EDITS)
+	public void addFront() {
+		for (int i = 0; i < EDITS; i++) {
+			this.tree.add('x', 0);
+			this.at[i] = 0;
+		}
+		this.deleting = false;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EDITS)
+	public void addBack() {
+		int start = this.tree.size();
+		for (int i = 0; i < EDITS; i++) {
+			this.tree.add('x', start + i);
+			this.at[i] = start + i;
+		}
+		this.deleting = false;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EDITS)
+	public void delete() {
+		for (int i = 0; i < EDITS; i++) {
+			int pos = this.position();
+			this.deleted[i] = this.tree.delete(pos);
+			this.at[i] = pos;
+		}
+		this.deleting = true;
+	}
+
+	private int position() {
+		int pos = this.positions[this.next];
+		this.next = (this.next + 1) & (POSITIONS - 1);
+		return pos;
+	}
+
+	/**
+	 * The edits above on an ArrayEditTree of the same document. It has no
+	 * chunks, so it is compared with the nodes at a chunk size of 1.
+	 */
+	@State(Scope.Thread)
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+	public static class Arrays {
+
+		@Param({ "1000", "100000", "10000000", "100000000" })
+		public int size;
+
+		private ArrayEditTree tree;
+		private int[] positions;
+		private int next;
+		private int[] at = new int[EDITS];
+		private char[] deleted = new char[EDITS];
+		private boolean deleting;
+
+		@Setup(Level.Trial)
+		public void build() {
+			this.tree = new ArrayEditTree(Texts.document(this.size));
+			this.positions = Texts.positions(POSITIONS, this.size - EDITS, 17);
+		}
+
+		@TearDown(Level.Invocation)
+		public void undo() {
+			for (int i = EDITS - 1; i >= 0; i--) {
+				if (this.deleting) {
+					this.tree.add(this.deleted[i], this.at[i]);
+				} else {
+					this.tree.delete(this.at[i]);
+				}
+			}
+		}
+
+		@Benchmark
+		@OperationsPerInvocation(EDITS)
+		public void addEnd() {
+			int start = this.tree.size();
+			for (int i = 0; i < EDITS; i++) {
+				this.tree.add('x');
+				this.at[i] = start + i;
+			}
+			this.deleting = false;
+		}
+
+		@Benchmark
+		@OperationsPerInvocation(EDITS)
+		public void addRandom() {
+			for (int i = 0; i < EDITS; i++) {
+				int pos = this.position();
+				this.tree.add('x', pos);
+				this.at[i] = pos;
+			}
+			this.deleting = false;
+		}
+
+		@Benchmark
+		@OperationsPerInvocation(EDITS)
+		public void addFront() {
+			for (int i = 0; i < EDITS; i++) {
+				this.tree.add('x', 0);
+				this.at[i] = 0;
+			}
+			this.deleting = false;
+		}
+
+		@Benchmark
+		@OperationsPerInvocation(EDITS)
+		public void addBack() {
+			int start = this.tree.size();
+			for (int i = 0; i < EDITS; i++) {
+				this.tree.add('x', start + i);
+				this.at[i] = start + i;
+			}
+			this.deleting = false;
+		}
+
+		@Benchmark
+		@OperationsPerInvocation(EDITS)
+		public void delete() {
+			for (int i = 0; i < EDITS; i++) {
+				int pos = this.position();
+				this.deleted[i] = this.tree.delete(pos);
+				this.at[i] = pos;
+			}
+			this.deleting = true;
+		}
+
+		private int position() {
+			int pos = this.positions[this.next];
+			this.next = (this.next + 1) & (POSITIONS - 1);
+			return pos;
+		}
+	}
+}
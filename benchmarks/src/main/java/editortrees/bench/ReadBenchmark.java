@@ -0,0 +1,158 @@
+package editortrees.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.ArrayEditTree;
+import editortrees.EditTree;
+
+/**
+ * Times reads of a document that doesn't change: single characters, ranges,
+ * searches, and finding every match in a window the size of a screen, at
+ * random positions. ReadBenchmark.Arrays does the reads an ArrayEditTree
+ * offers, to compare the arrays with the nodes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ReadBenchmark {
+
+	// characters read by get(pos, len), about a line
+	static final int RANGE = 80;
+	// length of the strings searched for
+	static final int PATTERN = 8;
+	// how far before its match each search starts, so that a search costs
+	// the same at every size
+	static final int SEARCH = 4096;
+	private static final int POSITIONS = 1 << 12;
+	// matched in each window by matches(), a few times a line
+	private static final Pattern WORD = Pattern.compile("\\b[aeiou]\\w*");
+
+	@Param({ "1000", "100000", "10000000", "100000000" })
+	public int size;
+
+	@Param({ "1", "64" })
+	public int chunkSize;
+
+	private EditTree tree;
+	private int[] positions;
+	private String[] patterns;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void build() {
+		String text = Texts.document(this.size);
+		this.tree = new EditTree(text, this.chunkSize);
+		this.positions = Texts.positions(POSITIONS, this.size - RANGE, 31);
+		this.patterns = new String[POSITIONS];
+		for (int i = 0; i < POSITIONS; i++) {
+			this.patterns[i] = text.substring(this.positions[i], this.positions[i] + PATTERN);
+		}
+	}
+
+	@Benchmark
+	public char get() {
+		return this.tree.get(this.positions[this.next()]);
+	}
+
+	@Benchmark
+	public String getRange() {
+		return this.tree.get(this.positions[this.next()], RANGE);
+	}
+
+	@Benchmark
+	public int find() {
+		int i = this.next();
+		return this.tree.find(this.patterns[i], this.positions[i] - SEARCH);
+	}
+
+	@Benchmark
+	public long findAll() {
+		int i = this.next();
+		int end = this.positions[i] + PATTERN;
+		return this.tree.findAll(this.patterns[i], Math.max(end - SEARCH, 0), end).count();
+	}
+
+	@Benchmark
+	public long matches() {
+		int i = this.next();
+		int end = this.positions[i] + PATTERN;
+		return this.tree.matches(WORD, Math.max(end - SEARCH, 0), end).count();
+	}
+
+	private int next() {
+		int i = this.next;
+		this.next = (i + 1) & (POSITIONS - 1);
+		return i;
+	}
+
+	/**
+	 * The reads above that an ArrayEditTree has, on the same document. It has
+	 * no chunks, so it is compared with the nodes at a chunk size of 1.
+	 */
+	@State(Scope.Thread)
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+	public static class Arrays {
+
+		@Param({ "1000", "100000", "10000000", "100000000" })
+		public int size;
+
+		private ArrayEditTree tree;
+		private int[] positions;
+		private String[] patterns;
+		private int next;
+
+		@Setup(Level.Trial)
+		public void build() {
+			String text = Texts.document(this.size);
+			this.tree = new ArrayEditTree(text);
+			this.positions = Texts.positions(POSITIONS, this.size - RANGE, 31);
+			this.patterns = new String[POSITIONS];
+			for (int i = 0; i < POSITIONS; i++) {
+				this.patterns[i] = text.substring(this.positions[i], this.positions[i] + PATTERN);
+			}
+		}
+
+		@Benchmark
+		public char get() {
+			return this.tree.get(this.positions[this.next()]);
+		}
+
+		@Benchmark
+		public String getRange() {
+			return this.tree.get(this.positions[this.next()], RANGE);
+		}
+
+		@Benchmark
+		public int find() {
+			int i = this.next();
+			return this.tree.find(this.patterns[i], this.positions[i] - SEARCH);
+		}
+
+		private int next() {
+			int i = this.next;
+			this.next = (i + 1) & (POSITIONS - 1);
+			return i;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package editortrees.bench;
+
+import java.util.Random;
+
+/**
+ * Makes the documents and positions the benchmarks work on. Everything comes
+ * from fixed seeds, so every run and every fork sees the same text.
+ */
+final class Texts {
+
+	// the most characters in a line of the documents
+	private static final int LINE = 72;
+
+	private Texts() {
+	}
+
+	/**
+	 * Makes a document of size characters: words of lowercase letters
+	 * separated by spaces and broken into lines, so that searches meet the
+	 * near misses that real text has
+	 */
+	static String document(int size) {
+		Random random = new Random(230);
+		StringBuilder sb = new StringBuilder(size);
+		int column = 0;
+		while (sb.length() < size) {
+			if (column >= LINE) {
+				sb.append('\n');
+				column = 0;
+				continue;
+			}
+			int word = 1 + random.nextInt(9);
+			for (int i = 0; i < word && sb.length() < size; i++) {
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+			if (sb.length() < size) {
+				sb.append(' ');
+			}
+			column += word + 1;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return count positions from 0 up to but not including bound, in the
+	 *         same order every time for the same seed
+	 */
+	static int[] positions(int count, int bound, long seed) {
+		Random random = new Random(seed);
+		int[] positions = new int[count];
+		for (int i = 0; i < count; i++) {
+			positions[i] = random.nextInt(Math.max(bound, 1));
+		}
+		return positions;
+	}
+}